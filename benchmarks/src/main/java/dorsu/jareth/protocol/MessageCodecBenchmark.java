@@ -0,0 +1,75 @@
+package dorsu.jareth.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing a counter's command, as onMessage does for every frame, and
+ * building the queue status message, whose size grows with the number of
+ * waiting tickets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    @Param({"10", "500"})
+    public int waiting;
+
+    private String commandJson;
+    private ByteBuffer commandBinary;
+    private QueueMessage status;
+
+    @Setup
+    public void prepare() {
+        QueueMessage command = QueueMessage.command(MessageType.NEXT_TICKET, 1).withRequestId(UUID.randomUUID().toString());
+        commandJson = MessageCodec.encodeJson(command);
+        commandBinary = MessageCodec.encodeBinary(command);
+        List<String> tickets = new ArrayList<>(waiting);
+        for (int i = 1; i <= waiting; i++) {
+            tickets.add("Ticket-" + i);
+        }
+        status = QueueMessage.command(MessageType.SNAPSHOT, 1)
+                .withSequence(42)
+                .withTickets(tickets)
+                .withTimestamp(System.currentTimeMillis())
+                .withEpoch(System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public QueueMessage decodeCommandJson() {
+        return MessageCodec.decodeJson(commandJson);
+    }
+
+    @Benchmark
+    public QueueMessage decodeCommandBinary() {
+        return MessageCodec.decodeBinary(commandBinary.duplicate());
+    }
+
+    @Benchmark
+    public String encodeStatusJson() {
+        return MessageCodec.encodeJson(status);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeStatusBinary() {
+        return MessageCodec.encodeBinary(status);
+    }
+}
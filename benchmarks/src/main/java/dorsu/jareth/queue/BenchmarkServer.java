@@ -0,0 +1,176 @@
+package dorsu.jareth.queue;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.handshake.ClientHandshake;
+
+/**
+ * A {@link QueueManagementServer} wired for benchmarks: MySQL is replaced by
+ * {@link FakeDatabase}, the event log and snapshot go to a temporary
+ * directory, commands run on the calling thread instead of the office
+ * dispatcher, and connections are in-memory sockets that count what they
+ * are sent. The socket server itself is never started.
+ *
+ * The server only logs warnings and errors, so connection messages do not
+ * flood the JMH report.
+ */
+public final class BenchmarkServer {
+
+    // Frames handed to the fake sockets, so the sends cannot be optimised away
+    public static final LongAdder sentFrames = new LongAdder();
+
+    private static final Draft DRAFT = new Draft_6455();
+
+    private final Path directory;
+    private final QueueManagementServer server;
+
+    public BenchmarkServer() throws IOException, SQLException {
+        directory = Files.createTempDirectory("queue-bench");
+        useStandIns(directory);
+        server = new QueueManagementServer(new InetSocketAddress("127.0.0.1", 0), new OfficeDispatcher(new CallerRunsExecutor()));
+        OfficeCache.reload();
+        server.getQueueEngine().restore();
+    }
+
+    /**
+     * Points every server created from now on at {@link FakeDatabase}, and
+     * its event log, snapshot, ticket and log files at the given directory.
+     * Call it before the first server class is loaded, while log4j can still
+     * pick up the quieter levels.
+     */
+    public static void useStandIns(Path directory) throws SQLException {
+        FakeDatabase.register();
+        System.setProperty("db.url", FakeDatabase.URL);
+        System.setProperty("queue.eventLogDirectory", directory.resolve("events").toString());
+        System.setProperty("queue.snapshotFile", directory.resolve("queue-state.snapshot").toString());
+        System.setProperty("ticket.directory", directory.resolve("tickets").toString());
+        // Frequent snapshots let the event log drop old segments during long runs
+        System.setProperty("queue.snapshotIntervalMillis", "1000");
+        System.setProperty("log.directory", directory.resolve("logs").toString());
+        System.setProperty("log.server.level", "warn");
+        System.setProperty("log.db.level", "warn");
+    }
+
+    // Deletes a directory given to useStandIns, with everything in it
+    public static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            List<Path> paths = files.sorted(Comparator.reverseOrder()).toList();
+            for (Path path : paths) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    public QueueManagementServer getServer() {
+        return server;
+    }
+
+    public QueueEngine getEngine() {
+        return server.getQueueEngine();
+    }
+
+    // An open connection subscribed the way a client asks for it, e.g. "/?offices=1&format=binary"
+    public WebSocket connect(String resourceDescriptor) {
+        WebSocket conn = fakeSocket();
+        ClientHandshake handshake = (ClientHandshake) Proxy.newProxyInstance(BenchmarkServer.class.getClassLoader(),
+                new Class<?>[]{ClientHandshake.class}, (proxy, method, args) ->
+                        method.getName().equals("getResourceDescriptor") ? resourceDescriptor : null);
+        server.onOpen(conn, handshake);
+        return conn;
+    }
+
+    public void close() throws InterruptedException, IOException {
+        server.getQueueEngine().shutdown();
+        deleteDirectory(directory);
+    }
+
+    private static WebSocket fakeSocket() {
+        Object[] attachment = {null};
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", 40000);
+        return (WebSocket) Proxy.newProxyInstance(BenchmarkServer.class.getClassLoader(), new Class<?>[]{WebSocket.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "send":
+                        case "sendFrame":
+                            sentFrames.increment();
+                            return null;
+                        case "getAttachment":
+                            return attachment[0];
+                        case "setAttachment":
+                            attachment[0] = args[0];
+                            return null;
+                        case "getDraft":
+                            return DRAFT;
+                        case "isOpen":
+                            return true;
+                        case "isClosed":
+                        case "isClosing":
+                        case "isFlushAndClose":
+                        case "hasBufferedData":
+                        case "hasSSLSupport":
+                            return false;
+                        case "getRemoteSocketAddress":
+                        case "getLocalSocketAddress":
+                            return address;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "FakeSocket@" + Integer.toHexString(System.identityHashCode(proxy));
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    // Runs each task immediately on the thread that submits it
+    private static class CallerRunsExecutor extends AbstractExecutorService {
+
+        private volatile boolean shutdown;
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return List.of();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
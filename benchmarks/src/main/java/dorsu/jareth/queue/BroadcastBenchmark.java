@@ -0,0 +1,61 @@
+package dorsu.jareth.queue;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Publishing queue events to every display watching an office. Each
+ * invocation issues and calls one ticket, so two events are encoded once
+ * and framed for each of the subscribers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    private static final int OFFICE = 1;
+
+    @Param({"1", "100", "1000"})
+    public int subscribers;
+
+    @Param({"json", "binary"})
+    public String format;
+
+    private BenchmarkServer bench;
+    private QueueEngine engine;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        bench = new BenchmarkServer();
+        engine = bench.getEngine();
+        for (int i = 0; i < subscribers; i++) {
+            bench.connect("/?offices=" + OFFICE + "&format=" + format);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws Exception {
+        bench.close();
+    }
+
+    @Benchmark
+    public QueuedTicket issueAndCall() throws Exception {
+        engine.issue(OFFICE);
+        return engine.callNext(OFFICE);
+    }
+}
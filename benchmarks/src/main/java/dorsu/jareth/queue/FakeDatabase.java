@@ -0,0 +1,229 @@
+package dorsu.jareth.queue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * In-process stand-in for MySQL, registered as the JDBC driver for
+ * jdbc:fake: URLs. It answers just the queries the queue engine and server
+ * make: the schema is already current, three offices exist, the tickets
+ * table starts empty, and ticket number blocks never run out. Every update
+ * and batch succeeds without storing anything, so the benchmarks measure
+ * the server's own work and not a database's.
+ */
+public class FakeDatabase implements Driver {
+
+    public static final String URL = "jdbc:fake:queue_management";
+
+    private static final Driver INSTANCE = new FakeDatabase();
+    private static final AtomicInteger nextTicketNumber = new AtomicInteger(1);
+
+    public static synchronized void register() throws SQLException {
+        for (Driver driver : DriverManager.drivers().toList()) {
+            if (driver == INSTANCE) {
+                return;
+            }
+        }
+        DriverManager.registerDriver(INSTANCE);
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) {
+        return acceptsURL(url) ? connection() : null;
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith("jdbc:fake:");
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    private static Connection connection() {
+        boolean[] closed = {false};
+        return proxy(Connection.class, (name, args) -> {
+            switch (name) {
+                case "createStatement":
+                    return statement(null);
+                case "prepareStatement":
+                    return statement((String) args[0]);
+                case "close":
+                    closed[0] = true;
+                    return null;
+                case "isClosed":
+                    return closed[0];
+                case "isValid":
+                case "getAutoCommit":
+                    return true;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    // A prepared statement runs its own SQL; a plain one runs whatever it is given
+    private static Statement statement(String preparedSql) {
+        int[] batched = {0};
+        return proxy(PreparedStatement.class, (name, args) -> {
+            String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+            switch (name) {
+                case "executeQuery":
+                    return resultSet(rowsFor(sql));
+                case "executeUpdate":
+                    return 1;
+                case "execute":
+                    return false;
+                case "addBatch":
+                    batched[0]++;
+                    return null;
+                case "executeBatch":
+                    int[] counts = new int[batched[0]];
+                    Arrays.fill(counts, 1);
+                    batched[0] = 0;
+                    return counts;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private static List<Map<String, Object>> rowsFor(String sql) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        if (sql.contains("GET_LOCK") || sql.contains("RELEASE_LOCK")) {
+            rows.add(row(1));
+        } else if (sql.contains("schema_version")) {
+            // Newer than any migration, so none are applied
+            rows.add(row(Integer.MAX_VALUE));
+        } else if (sql.contains("next_value")) {
+            // Far apart enough that no office ever reaches the next block's start
+            rows.add(row("next_value", nextTicketNumber.getAndAdd(100_000)));
+        } else if (sql.contains("journal_seq")) {
+            rows.add(row(0L));
+        } else if (sql.contains("FROM offices")) {
+            String[] names = {"Registrar", "Guidance", "Cashier"};
+            for (int i = 0; i < names.length; i++) {
+                Map<String, Object> office = new HashMap<>();
+                office.put("id", i + 1);
+                office.put("name", names[i]);
+                office.put("details", "");
+                office.put("created_at", Timestamp.valueOf(LocalDateTime.now()));
+                rows.add(office);
+            }
+        }
+        return rows;
+    }
+
+    private static Map<String, Object> row(Object firstColumn) {
+        return row("1", firstColumn);
+    }
+
+    private static Map<String, Object> row(String column, Object value) {
+        Map<String, Object> row = new HashMap<>();
+        row.put(column, value);
+        row.put("1", value);
+        return row;
+    }
+
+    private static ResultSet resultSet(List<Map<String, Object>> rows) {
+        int[] cursor = {-1};
+        return proxy(ResultSet.class, (name, args) -> {
+            switch (name) {
+                case "next":
+                    return ++cursor[0] < rows.size();
+                case "wasNull":
+                    return false;
+                case "getInt":
+                case "getLong":
+                case "getString":
+                case "getTimestamp":
+                case "getObject":
+                    Object value = rows.get(cursor[0]).get(String.valueOf(args[0]));
+                    if (name.equals("getInt")) {
+                        return value == null ? 0 : ((Number) value).intValue();
+                    }
+                    if (name.equals("getLong")) {
+                        return value == null ? 0L : ((Number) value).longValue();
+                    }
+                    return value;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(FakeDatabase.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "Fake" + type.getSimpleName();
+                default:
+                    Object result = handler.handle(method.getName(), args);
+                    return result != null || !method.getReturnType().isPrimitive() ? result : primitiveDefault(method.getReturnType());
+            }
+        });
+    }
+
+    private static Object primitiveDefault(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == void.class) {
+            return null;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return 0;
+    }
+
+    private interface Handler {
+
+        Object handle(String method, Object[] args) throws SQLException;
+    }
+}
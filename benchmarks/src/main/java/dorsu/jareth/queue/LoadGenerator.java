@@ -0,0 +1,468 @@
+package dorsu.jareth.queue;
+
+import dorsu.jareth.protocol.MessageCodec;
+import dorsu.jareth.protocol.MessageType;
+import dorsu.jareth.protocol.QueueMessage;
+import dorsu.jareth.protocol.WireFormat;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+/**
+ * Headless load generator for {@link QueueManagementServer}: simulated
+ * kiosks issue tickets, counters call them, and display boards watch their
+ * office's events, each over its own WebSocket connection. Clients are
+ * spread over offices by weight (--offices 1:3,2:1 puts three clients on
+ * office 1 for every one on office 2) and commands are sent at fixed total
+ * rates whether or not earlier replies have arrived, like real kiosks.
+ *
+ * Reported as HDR histograms, after a warmup that is not recorded:
+ * - command latency, from sending NEW_TICKET or NEXT_TICKET to the reply
+ *   carrying its idempotency key;
+ * - broadcast delay, from a kiosk sending NEW_TICKET to each display board
+ *   of that office receiving the TICKET_ADDED event.
+ *
+ * Without --url it starts a local server on the {@link FakeDatabase}
+ * stand-in, so it runs anywhere without MySQL:
+ *
+ *   java -cp target/benchmarks.jar dorsu.jareth.queue.LoadGenerator --kiosks 100 --displays 1000
+ */
+public final class LoadGenerator {
+
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final Options options;
+    private final URI serverUri;
+    private final PrintStream out;
+    private final List<SimulatedClient> clients = new ArrayList<>();
+    private final Map<Integer, Integer> displaysPerOffice = new HashMap<>();
+    // Sent commands by idempotency key, with the time they were sent
+    private final ConcurrentMap<String, Long> inFlight = new ConcurrentHashMap<>();
+    // Issued tickets not yet seen by every display of their office, by office and ticket number
+    private final ConcurrentMap<String, Sighting> sightings = new ConcurrentHashMap<>();
+    private final Recorder issueLatency = new Recorder(HIGHEST_MICROS, 3);
+    private final Recorder callLatency = new Recorder(HIGHEST_MICROS, 3);
+    private final Recorder broadcastDelay = new Recorder(HIGHEST_MICROS, 3);
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder emptyCalls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final ScheduledExecutorService senders;
+
+    private LoadGenerator(Options options, URI serverUri, PrintStream out) {
+        this.options = options;
+        this.serverUri = serverUri;
+        this.out = out;
+        this.senders = Executors.newScheduledThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), runnable -> {
+            Thread thread = new Thread(runnable, "loadgen-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        Path directory = null;
+        QueueManagementServer server = null;
+        URI uri = options.url;
+        if (uri == null) {
+            directory = Files.createTempDirectory("queue-loadgen");
+            BenchmarkServer.useStandIns(directory);
+            int port = options.port > 0 ? options.port : freePort();
+            server = startServer(port);
+            uri = URI.create("ws://127.0.0.1:" + port);
+            System.out.println("Started a local server with a stand-in database on " + uri);
+        }
+        try {
+            new LoadGenerator(options, uri, System.out).run();
+        } finally {
+            if (server != null) {
+                server.stop(1000, "Load test finished");
+                BenchmarkServer.deleteDirectory(directory);
+            }
+        }
+    }
+
+    private void run() throws InterruptedException, IOException {
+        connectClients();
+        out.printf("Connected %d kiosks, %d counters and %d display boards; issuing %.0f and calling %.0f tickets per second.%n",
+                options.kiosks, options.counters, options.displays, options.issueRate, options.callRate);
+        scheduleCommands(MessageType.NEW_TICKET, options.issueRate);
+        scheduleCommands(MessageType.NEXT_TICKET, options.callRate);
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(options.warmupSeconds));
+        issueLatency.getIntervalHistogram();
+        callLatency.getIntervalHistogram();
+        broadcastDelay.getIntervalHistogram();
+        long sentBefore = sent.sum();
+        out.println("Warmup done, measuring for " + options.durationSeconds + " s...");
+        Thread.sleep(TimeUnit.SECONDS.toMillis(options.durationSeconds));
+        senders.shutdownNow();
+        long measuredSends = sent.sum() - sentBefore;
+        // Let replies to the last commands arrive
+        Thread.sleep(1000);
+
+        Histogram issues = issueLatency.getIntervalHistogram();
+        Histogram calls = callLatency.getIntervalHistogram();
+        Histogram broadcasts = broadcastDelay.getIntervalHistogram();
+        out.printf("%nSent %d commands in %d s (%.0f/s); %d calls found an empty queue, %d errors, %d commands unanswered.%n",
+                measuredSends, options.durationSeconds, (double) measuredSends / options.durationSeconds,
+                emptyCalls.sum(), errors.sum(), inFlight.size());
+        out.printf("%-18s %10s %10s %10s %10s %10s%n", "latency (ms)", "count", "p50", "p99", "p99.9", "max");
+        report("issue command", issues);
+        report("call command", calls);
+        report("broadcast delay", broadcasts);
+        if (options.histogramDirectory != null) {
+            Files.createDirectories(options.histogramDirectory);
+            writeHistogram("issue-latency.hgrm", issues);
+            writeHistogram("call-latency.hgrm", calls);
+            writeHistogram("broadcast-delay.hgrm", broadcasts);
+            out.println("Histograms written to " + options.histogramDirectory);
+        }
+        for (SimulatedClient client : clients) {
+            client.close();
+        }
+    }
+
+    private void connectClients() throws InterruptedException {
+        List<Integer> offices = options.officeMix();
+        int index = 0;
+        for (Role role : Role.values()) {
+            for (int i = 0; i < options.count(role); i++) {
+                int officeId = offices.get(index++ % offices.size());
+                if (role == Role.DISPLAY) {
+                    displaysPerOffice.merge(officeId, 1, Integer::sum);
+                }
+                SimulatedClient client = new SimulatedClient(role, officeId);
+                if (!client.connectBlocking(10, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("Could not connect " + role + " " + clients.size() + " to " + serverUri);
+                }
+                clients.add(client);
+            }
+        }
+    }
+
+    // Spreads the total rate evenly over the clients sending this command, each starting at a random offset
+    private void scheduleCommands(MessageType type, double perSecond) {
+        Role role = type == MessageType.NEW_TICKET ? Role.KIOSK : Role.COUNTER;
+        int senderCount = options.count(role);
+        if (senderCount == 0 || perSecond <= 0) {
+            return;
+        }
+        long periodMicros = Math.max(1, (long) (TimeUnit.SECONDS.toMicros(1) * senderCount / perSecond));
+        for (SimulatedClient client : clients) {
+            if (client.role == role) {
+                long offset = ThreadLocalRandom.current().nextLong(periodMicros);
+                senders.scheduleAtFixedRate(() -> client.sendCommand(type), offset, periodMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+    }
+
+    private void report(String name, Histogram histogram) {
+        out.printf("%-18s %10d %10.3f %10.3f %10.3f %10.3f%n", name, histogram.getTotalCount(),
+                histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMaxValue() / 1000.0);
+    }
+
+    private void writeHistogram(String fileName, Histogram histogram) throws IOException {
+        try (PrintStream file = new PrintStream(Files.newOutputStream(options.histogramDirectory.resolve(fileName)))) {
+            // In milliseconds, like the summary
+            histogram.outputPercentileDistribution(file, 1000.0);
+        }
+    }
+
+    private void ticketIssued(int officeId, String ticketNumber, long sentNanos) {
+        if (displaysPerOffice.containsKey(officeId)) {
+            sighting(officeId, ticketNumber).issued(sentNanos);
+        }
+    }
+
+    private void ticketDisplayed(int officeId, String ticketNumber, long receivedNanos) {
+        sighting(officeId, ticketNumber).displayed(receivedNanos);
+    }
+
+    private Sighting sighting(int officeId, String ticketNumber) {
+        String key = officeId + "/" + ticketNumber;
+        return sightings.computeIfAbsent(key, k -> new Sighting(key, displaysPerOffice.getOrDefault(officeId, 0)));
+    }
+
+    private static QueueManagementServer startServer(int port) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        QueueManagementServer server = new QueueManagementServer(new InetSocketAddress("127.0.0.1", port)) {
+            @Override
+            public void onStart() {
+                super.onStart();
+                started.countDown();
+            }
+        };
+        server.setReuseAddr(true);
+        server.start();
+        if (!started.await(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("The local server did not start on port " + port);
+        }
+        return server;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private enum Role {
+        KIOSK,
+        COUNTER,
+        DISPLAY
+    }
+
+    /**
+     * One ticket's way to the display boards of its office. A display can
+     * receive the event before the kiosk has the reply that says which
+     * ticket it issued, so early sightings wait here for the send time.
+     */
+    private final class Sighting {
+
+        private final String key;
+        private final int expected;
+        private final List<Long> early = new ArrayList<>();
+        private long sentNanos = -1;
+        private int seen;
+
+        Sighting(String key, int expected) {
+            this.key = key;
+            this.expected = expected;
+        }
+
+        synchronized void issued(long sentNanos) {
+            this.sentNanos = sentNanos;
+            for (long receivedNanos : early) {
+                record(receivedNanos);
+            }
+            early.clear();
+            finishIfComplete();
+        }
+
+        synchronized void displayed(long receivedNanos) {
+            seen++;
+            if (sentNanos < 0) {
+                early.add(receivedNanos);
+            } else {
+                record(receivedNanos);
+                finishIfComplete();
+            }
+        }
+
+        private void record(long receivedNanos) {
+            broadcastDelay.recordValue(Math.min(HIGHEST_MICROS, Math.max(0, (receivedNanos - sentNanos) / 1000)));
+        }
+
+        private void finishIfComplete() {
+            if (seen >= expected) {
+                sightings.remove(key);
+            }
+        }
+    }
+
+    private final class SimulatedClient extends WebSocketClient {
+
+        private final Role role;
+        private final int officeId;
+
+        SimulatedClient(Role role, int officeId) {
+            super(serverUri.resolve("/?offices=" + officeId + "&format=" + options.format.name().toLowerCase()));
+            this.role = role;
+            this.officeId = officeId;
+        }
+
+        void sendCommand(MessageType type) {
+            if (!isOpen()) {
+                return;
+            }
+            String requestId = UUID.randomUUID().toString();
+            QueueMessage command = QueueMessage.command(type, officeId).withRequestId(requestId);
+            inFlight.put(requestId, System.nanoTime());
+            if (options.format == WireFormat.BINARY) {
+                send(MessageCodec.encodeBinary(command));
+            } else {
+                send(MessageCodec.encodeJson(command));
+            }
+            sent.increment();
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+        }
+
+        @Override
+        public void onMessage(String message) {
+            receive(MessageCodec.decodeJson(message));
+        }
+
+        @Override
+        public void onMessage(ByteBuffer message) {
+            receive(MessageCodec.decodeBinary(message));
+        }
+
+        private void receive(QueueMessage message) {
+            long now = System.nanoTime();
+            if (message.getRequestId() != null) {
+                Long sentNanos = inFlight.remove(message.getRequestId());
+                if (sentNanos == null) {
+                    return;
+                }
+                long micros = Math.min(HIGHEST_MICROS, (now - sentNanos) / 1000);
+                switch (message.getType()) {
+                    case TICKET_ISSUED:
+                        issueLatency.recordValue(micros);
+                        ticketIssued(message.getOfficeId(), message.getTicketNumber(), sentNanos);
+                        break;
+                    case NOW_SERVING:
+                        callLatency.recordValue(micros);
+                        break;
+                    case INFO:
+                        callLatency.recordValue(micros);
+                        emptyCalls.increment();
+                        break;
+                    default:
+                        errors.increment();
+                }
+            } else if (role == Role.DISPLAY && message.getType() == MessageType.TICKET_ADDED) {
+                ticketDisplayed(message.getOfficeId(), message.getTicketNumber(), now);
+            } else if (message.getType() == MessageType.ERROR) {
+                errors.increment();
+            }
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            System.err.println(role + " for office " + officeId + ": " + ex.getMessage());
+        }
+    }
+
+    private static final class Options {
+
+        private URI url;
+        private int port;
+        private int kiosks = 50;
+        private int counters = 20;
+        private int displays = 200;
+        private String offices = "1:1,2:1,3:1";
+        private double issueRate = 200;
+        private double callRate = 200;
+        private int warmupSeconds = 5;
+        private int durationSeconds = 30;
+        private WireFormat format = WireFormat.JSON;
+        private Path histogramDirectory;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String name = args[i];
+                if (i + 1 >= args.length) {
+                    throw usage("Missing value for " + name);
+                }
+                String value = args[++i];
+                switch (name) {
+                    case "--url":
+                        options.url = URI.create(value);
+                        break;
+                    case "--port":
+                        options.port = Integer.parseInt(value);
+                        break;
+                    case "--kiosks":
+                        options.kiosks = Integer.parseInt(value);
+                        break;
+                    case "--counters":
+                        options.counters = Integer.parseInt(value);
+                        break;
+                    case "--displays":
+                        options.displays = Integer.parseInt(value);
+                        break;
+                    case "--offices":
+                        options.offices = value;
+                        break;
+                    case "--issue-rate":
+                        options.issueRate = Double.parseDouble(value);
+                        break;
+                    case "--call-rate":
+                        options.callRate = Double.parseDouble(value);
+                        break;
+                    case "--warmup":
+                        options.warmupSeconds = Integer.parseInt(value);
+                        break;
+                    case "--duration":
+                        options.durationSeconds = Integer.parseInt(value);
+                        break;
+                    case "--format":
+                        options.format = WireFormat.fromParameter(value);
+                        break;
+                    case "--histograms":
+                        options.histogramDirectory = Paths.get(value);
+                        break;
+                    default:
+                        throw usage("Unknown option " + name);
+                }
+            }
+            return options;
+        }
+
+        int count(Role role) {
+            switch (role) {
+                case KIOSK:
+                    return kiosks;
+                case COUNTER:
+                    return counters;
+                default:
+                    return displays;
+            }
+        }
+
+        // Office ids repeated by weight, e.g. "1:2,3:1" gives [1, 1, 3]
+        List<Integer> officeMix() {
+            List<Integer> mix = new ArrayList<>();
+            for (String entry : offices.split(",")) {
+                String[] parts = entry.trim().split(":");
+                int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+                for (int i = 0; i < weight; i++) {
+                    mix.add(Integer.parseInt(parts[0].trim()));
+                }
+            }
+            if (mix.isEmpty()) {
+                throw usage("--offices needs at least one office");
+            }
+            return mix;
+        }
+
+        private static IllegalArgumentException usage(String problem) {
+            return new IllegalArgumentException(problem + ". Options: --url ws://host:port (default: a local server with a stand-in database), "
+                    + "--port, --kiosks, --counters, --displays, --offices id:weight,..., --issue-rate, --call-rate (per second, all clients together), "
+                    + "--warmup, --duration (seconds), --format json|binary, --histograms <directory for .hgrm files>");
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package dorsu.jareth.queue;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The engine's queue operations with no clients connected: issuing a ticket
+ * and calling it, which includes appending both changes to the event log,
+ * and copying an office's queue for a status reply.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueueEngineBenchmark {
+
+    private static final int CALLING_OFFICE = 1;
+    private static final int WAITING_OFFICE = 2;
+
+    // Tickets waiting at the office whose status is read
+    @Param({"10", "500"})
+    public int waiting;
+
+    private BenchmarkServer bench;
+    private QueueEngine engine;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        bench = new BenchmarkServer();
+        engine = bench.getEngine();
+        for (int i = 0; i < waiting; i++) {
+            engine.issue(WAITING_OFFICE);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws Exception {
+        bench.close();
+    }
+
+    @Benchmark
+    public QueuedTicket issueAndCall() throws Exception {
+        engine.issue(CALLING_OFFICE);
+        return engine.callNext(CALLING_OFFICE);
+    }
+
+    @Benchmark
+    public QueueSnapshot status() {
+        return engine.getSnapshot(WAITING_OFFICE);
+    }
+}
@@ -0,0 +1,97 @@
+package dorsu.jareth.queue;
+
+import dorsu.jareth.protocol.MessageCodec;
+import dorsu.jareth.protocol.MessageType;
+import dorsu.jareth.protocol.QueueMessage;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.java_websocket.WebSocket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A counter's commands as the server receives them in onMessage: decoding,
+ * running the command, encoding and sending the reply. The status request
+ * builds a full queue snapshot message for an office with queueLength
+ * waiting tickets. Calling the next ticket also publishes the event to the
+ * one connected counter.
+ *
+ * Issuing goes through the engine rather than NEW_TICKET, which would also
+ * write a ticket file for every invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerCommandBenchmark {
+
+    private static final int CALLING_OFFICE = 1;
+    private static final int STATUS_OFFICE = 2;
+
+    @Param({"json", "binary"})
+    public String format;
+
+    @Param({"10", "500"})
+    public int queueLength;
+
+    private BenchmarkServer bench;
+    private QueueManagementServer server;
+    private WebSocket counter;
+    private String nextTicketJson;
+    private String statusJson;
+    private ByteBuffer nextTicketBinary;
+    private ByteBuffer statusBinary;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        bench = new BenchmarkServer();
+        server = bench.getServer();
+        counter = bench.connect("/?offices=" + CALLING_OFFICE + "&format=" + format);
+        for (int i = 0; i < queueLength; i++) {
+            bench.getEngine().issue(STATUS_OFFICE);
+        }
+        QueueMessage nextTicket = QueueMessage.command(MessageType.NEXT_TICKET, CALLING_OFFICE);
+        QueueMessage status = QueueMessage.command(MessageType.SNAPSHOT_REQUEST, STATUS_OFFICE);
+        nextTicketJson = MessageCodec.encodeJson(nextTicket);
+        statusJson = MessageCodec.encodeJson(status);
+        nextTicketBinary = MessageCodec.encodeBinary(nextTicket);
+        statusBinary = MessageCodec.encodeBinary(status);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws Exception {
+        bench.close();
+    }
+
+    @Benchmark
+    public void callNext() throws Exception {
+        bench.getEngine().issue(CALLING_OFFICE);
+        receive(nextTicketJson, nextTicketBinary);
+    }
+
+    @Benchmark
+    public void status() {
+        receive(statusJson, statusBinary);
+    }
+
+    private void receive(String json, ByteBuffer binary) {
+        if (format.equals("binary")) {
+            server.onMessage(counter, binary.duplicate());
+        } else {
+            server.onMessage(counter, json);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package dorsu.jareth.auth;
 
 import dorsu.jareth.queue.MainDashboard;
 import dorsu.jareth.util.DatabaseConnection;
+import dorsu.jareth.util.Loggers;
 import java.net.URISyntaxException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -25,18 +26,31 @@ import javafx.scene.text.Font;
 import javafx.scene.text.Text;
 import javafx.scene.text.TextFlow;
 import javafx.stage.Stage;
+import org.apache.logging.log4j.Logger;
 
 public class Authentication extends Application {
 
+    private static final Logger LOG = Loggers.ui(Authentication.class);
+
     private Scene loginScene;
     private Scene registerScene;
     private Stage authStage;
 
+    // Runs on the launcher thread before start(), so the FX thread never waits on a migration
+    @Override
+    public void init() {
+        try {
+            DatabaseConnection.migrateSchema();
+        } catch (SQLException e) {
+            LOG.error("Could not migrate the database: {}", e.getMessage());
+        }
+    }
+
     @Override
     public void start(Stage primaryStage) {
         primaryStage.setOnCloseRequest(event -> {
             // Perform any necessary cleanup or actions before exiting
-            System.out.println("Application closing..."); // Optional: Log the event
+            LOG.info("Application closing..."); // Optional: Log the event
             // You might add code here to save data, close resources, etc.
             Platform.exit(); //Ensure the application exits cleanly
             System.exit(0); // Ensure the JVM exits
@@ -303,7 +317,7 @@ public class Authentication extends Application {
             }
 
         } catch (SQLException e) {
-            System.out.println("Error: " + e.getMessage());
+            LOG.error("Error: {}", e.getMessage());
             showAlert("Database Error", "There was a problem connecting to the database.", AlertType.ERROR);
         }
     }
@@ -333,7 +347,7 @@ public class Authentication extends Application {
             }
 
         } catch (SQLException e) {
-            System.out.println("Error: " + e.getMessage());
+            LOG.error("Error: {}", e.getMessage());
             showAlert("Database Error", "There was a problem connecting to the database.", AlertType.ERROR);
         }
     }
@@ -0,0 +1,285 @@
+package dorsu.jareth.metrics;
+
+import dorsu.jareth.util.Loggers;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Process-wide metrics registry. Timers and counters are updated on the hot
+ * path and cost a few uncontended adds; gauges are read from their owner
+ * only when someone looks, so they cost nothing in between.
+ *
+ * Each metric has at most one label, e.g. the command type or the office.
+ * {@link #writePrometheus} renders everything in the Prometheus text format
+ * for {@link MetricsHttpServer}, and {@link #samples} gives the same values
+ * as rows for the admin dashboard.
+ */
+public final class Metrics {
+
+    private static final Logger LOG = Loggers.server(Metrics.class);
+
+    private static final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    public static Timer timer(String name, String help) {
+        return timer(name, help, null, "");
+    }
+
+    public static Timer timer(String name, String help, String label, String labelValue) {
+        return ((TimerFamily) families.computeIfAbsent(name, n -> new TimerFamily(n, help, label))).children
+                .computeIfAbsent(labelValue, v -> new Timer());
+    }
+
+    // Time spent in one kind of database operation, shared by everything that talks to MySQL
+    public static Timer database(String operation) {
+        return timer("queue_db_seconds", "Time spent in database operations.", "operation", operation);
+    }
+
+    public static LongAdder counter(String name, String help) {
+        return counter(name, help, null, "");
+    }
+
+    public static LongAdder counter(String name, String help, String label, String labelValue) {
+        return ((CounterFamily) families.computeIfAbsent(name, n -> new CounterFamily(n, help, label))).children
+                .computeIfAbsent(labelValue, v -> new LongAdder());
+    }
+
+    // A count kept by its owner, e.g. the connection pool, read when collected; replaced like a gauge
+    public static void counter(String name, String help, LongSupplier value) {
+        families.put(name, new GaugeFamily(name, help, null, "counter", () -> Map.of("", value.getAsLong())));
+    }
+
+    // Registering a gauge again replaces it, e.g. when the dashboard starts a new server
+    public static void gauge(String name, String help, DoubleSupplier value) {
+        families.put(name, new GaugeFamily(name, help, null, "gauge", () -> Map.of("", value.getAsDouble())));
+    }
+
+    // One value per label, e.g. per office, read from values when the gauge is collected
+    public static void gauges(String name, String help, String label, Supplier<Map<String, ? extends Number>> values) {
+        families.put(name, new GaugeFamily(name, help, label, "gauge", values));
+    }
+
+    public static void remove(String name) {
+        families.remove(name);
+    }
+
+    public static void writePrometheus(StringBuilder out) {
+        for (Family family : families.values()) {
+            try {
+                family.write(out);
+            } catch (RuntimeException e) {
+                LOG.error("Error collecting metric {}: {}", family.name, e.getMessage());
+            }
+        }
+    }
+
+    public static List<Sample> samples() {
+        List<Sample> samples = new ArrayList<>();
+        for (Family family : families.values()) {
+            try {
+                family.sample(samples);
+            } catch (RuntimeException e) {
+                LOG.error("Error collecting metric {}: {}", family.name, e.getMessage());
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * One row for the dashboard. Timers are summarised as count, mean and
+     * the buckets that hold the median and the 99th percentile.
+     */
+    public static class Sample {
+
+        private final String name;
+        private final String labels;
+        private final String value;
+        private final String help;
+
+        Sample(String name, String labels, String value, String help) {
+            this.name = name;
+            this.labels = labels;
+            this.value = value;
+            this.help = help;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getLabels() {
+            return labels;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public String getHelp() {
+            return help;
+        }
+    }
+
+    private abstract static class Family {
+
+        final String name;
+        final String help;
+        final String label;
+
+        Family(String name, String help, String label) {
+            this.name = name;
+            this.help = help;
+            this.label = label;
+        }
+
+        abstract void write(StringBuilder out);
+
+        abstract void sample(List<Sample> samples);
+
+        void header(StringBuilder out, String type) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        }
+
+        // {label="value"}, or nothing for an unlabelled metric
+        String labels(String labelValue) {
+            return label == null ? "" : "{" + label + "=\"" + escape(labelValue) + "\"}";
+        }
+
+        String displayLabels(String labelValue) {
+            return label == null ? "" : label + "=" + labelValue;
+        }
+    }
+
+    private static class TimerFamily extends Family {
+
+        final ConcurrentMap<String, Timer> children = new ConcurrentHashMap<>();
+
+        TimerFamily(String name, String help, String label) {
+            super(name, help, label);
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            header(out, "histogram");
+            for (Map.Entry<String, Timer> child : new TreeMap<>(children).entrySet()) {
+                String prefix = label == null ? "" : label + "=\"" + escape(child.getKey()) + "\",";
+                long[] counts = child.getValue().bucketCounts();
+                long cumulative = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    cumulative += counts[i];
+                    String bound = i < Timer.BUCKETS.length ? Double.toString(Timer.BUCKETS[i]) : "+Inf";
+                    out.append(name).append("_bucket{").append(prefix).append("le=\"").append(bound).append("\"} ").append(cumulative).append('\n');
+                }
+                String labels = labels(child.getKey());
+                out.append(name).append("_sum").append(labels).append(' ').append(child.getValue().sumSeconds()).append('\n');
+                out.append(name).append("_count").append(labels).append(' ').append(cumulative).append('\n');
+            }
+        }
+
+        @Override
+        void sample(List<Sample> samples) {
+            for (Map.Entry<String, Timer> child : new TreeMap<>(children).entrySet()) {
+                long[] counts = child.getValue().bucketCounts();
+                long total = 0;
+                for (long count : counts) {
+                    total += count;
+                }
+                String value = total == 0 ? "no samples" : String.format("n=%d  mean=%s  p50<=%s  p99<=%s", total,
+                        millis(child.getValue().sumSeconds() / total), upperBound(counts, total, 0.5), upperBound(counts, total, 0.99));
+                samples.add(new Sample(name, displayLabels(child.getKey()), value, help));
+            }
+        }
+
+        private static String upperBound(long[] counts, long total, double quantile) {
+            long cumulative = 0;
+            for (int i = 0; i < Timer.BUCKETS.length; i++) {
+                cumulative += counts[i];
+                if (cumulative >= quantile * total) {
+                    return millis(Timer.BUCKETS[i]);
+                }
+            }
+            return ">" + millis(Timer.BUCKETS[Timer.BUCKETS.length - 1]);
+        }
+
+        private static String millis(double seconds) {
+            return String.format("%.2f ms", seconds * 1000);
+        }
+    }
+
+    private static class CounterFamily extends Family {
+
+        final ConcurrentMap<String, LongAdder> children = new ConcurrentHashMap<>();
+
+        CounterFamily(String name, String help, String label) {
+            super(name, help, label);
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            header(out, "counter");
+            for (Map.Entry<String, LongAdder> child : new TreeMap<>(children).entrySet()) {
+                out.append(name).append(labels(child.getKey())).append(' ').append(child.getValue().sum()).append('\n');
+            }
+        }
+
+        @Override
+        void sample(List<Sample> samples) {
+            for (Map.Entry<String, LongAdder> child : new TreeMap<>(children).entrySet()) {
+                samples.add(new Sample(name, displayLabels(child.getKey()), Long.toString(child.getValue().sum()), help));
+            }
+        }
+    }
+
+    // Values read from their owner when collected; exported as a gauge, or as a counter when they only grow
+    private static class GaugeFamily extends Family {
+
+        final String type;
+        final Supplier<Map<String, ? extends Number>> values;
+
+        GaugeFamily(String name, String help, String label, String type, Supplier<Map<String, ? extends Number>> values) {
+            super(name, help, label);
+            this.type = type;
+            this.values = values;
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            header(out, type);
+            for (Map.Entry<String, ? extends Number> value : collect().entrySet()) {
+                out.append(name).append(labels(value.getKey())).append(' ').append(value.getValue().doubleValue()).append('\n');
+            }
+        }
+
+        @Override
+        void sample(List<Sample> samples) {
+            for (Map.Entry<String, ? extends Number> value : collect().entrySet()) {
+                double number = value.getValue().doubleValue();
+                String text = number == Math.rint(number) ? Long.toString((long) number) : String.format("%.3f", number);
+                samples.add(new Sample(name, displayLabels(value.getKey()), text, help));
+            }
+        }
+
+        private Map<String, ? extends Number> collect() {
+            Map<String, ? extends Number> collected = values.get();
+            return collected != null ? new TreeMap<>(collected) : Collections.emptyMap();
+        }
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
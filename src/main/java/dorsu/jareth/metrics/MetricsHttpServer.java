@@ -0,0 +1,78 @@
+package dorsu.jareth.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dorsu.jareth.util.AppConfig;
+import dorsu.jareth.util.Loggers;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Serves {@link Metrics} at /metrics in the Prometheus text format, for a
+ * scraper or curl on the server machine. Binds to metrics.bindAddress
+ * (default 127.0.0.1) on metrics.port; a port of 0 or less disables it.
+ */
+public class MetricsHttpServer {
+
+    private static final Logger LOG = Loggers.server(MetricsHttpServer.class);
+
+    private HttpServer http;
+    private ExecutorService executor;
+
+    public void start() {
+        int port = AppConfig.getInt("metrics.port", 9404);
+        if (port <= 0) {
+            return;
+        }
+        try {
+            http = HttpServer.create(new InetSocketAddress(AppConfig.get("metrics.bindAddress", "127.0.0.1"), port), 0);
+            http.createContext("/metrics", this::handle);
+            executor = Executors.newSingleThreadExecutor(Thread.ofPlatform().name("metrics-http").daemon(true).factory());
+            http.setExecutor(executor);
+            http.start();
+            LOG.info("Metrics available at http://{}:{}/metrics", http.getAddress().getHostString(), port);
+        } catch (IOException e) {
+            // Metrics are optional, the queue server runs without them
+            LOG.warn("Could not start the metrics endpoint on port {}: {}", port, e.getMessage());
+            http = null;
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+    }
+
+    public void stop() {
+        if (http != null) {
+            http.stop(0);
+            http = null;
+        }
+        // HttpServer.stop leaves the executor it was given running
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            StringBuilder text = new StringBuilder(8192);
+            Metrics.writePrometheus(text);
+            byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package dorsu.jareth.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with fixed buckets from 100 microseconds to 10
+ * seconds. Recording is a bucket lookup and two adds, without locks or
+ * allocation, so it is cheap enough for every command and broadcast.
+ */
+public class Timer {
+
+    // Upper bounds in seconds, Prometheus' "le"; anything slower only counts towards +Inf
+    static final double[] BUCKETS = {0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BUCKET_NANOS[i] = (long) (BUCKETS[i] * 1_000_000_000L);
+        }
+    }
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    Timer() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    // Records the time since a System.nanoTime() taken earlier
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    // Per bucket, not cumulative; the last entry is everything above the largest bound
+    long[] bucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    double sumSeconds() {
+        return sumNanos.sum() / 1e9;
+    }
+}
@@ -0,0 +1,509 @@
+package dorsu.jareth.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Encodes and decodes {@link QueueMessage}s for the WebSocket connection,
+ * either as a flat JSON object in a text frame or as a compact binary frame.
+ *
+ * Binary layout: the byte 'Q', the protocol version, the type code, then
+ * fields as [tag][int length][payload]. Both decoders skip fields they do
+ * not know, so a newer peer can add fields without breaking an older one.
+ * The version only changes when a layout does, and a message from a version
+ * this build does not know is rejected rather than guessed at. Malformed
+ * input is reported with an IllegalArgumentException.
+ */
+public final class MessageCodec {
+
+    public static final int PROTOCOL_VERSION = 1;
+
+    private static final byte MAGIC = 'Q';
+    private static final int TAG_OFFICE = 1;
+    private static final int TAG_SEQUENCE = 2;
+    private static final int TAG_TICKET = 3;
+    private static final int TAG_OFFICE_NAME = 4;
+    private static final int TAG_TEXT = 5;
+    private static final int TAG_TICKETS = 6;
+    private static final int TAG_TIMESTAMP = 7;
+    private static final int TAG_REQUEST_ID = 8;
+    private static final int TAG_EPOCH = 9;
+    private static final int TAG_SERVICE = 10;
+
+    private MessageCodec() {
+    }
+
+    public static String encodeJson(QueueMessage message) {
+        StringBuilder out = new StringBuilder(256);
+        out.append("{\"v\":").append(PROTOCOL_VERSION)
+                .append(",\"type\":\"").append(message.getType().name()).append('"');
+        if (message.getOfficeId() != 0) {
+            out.append(",\"office\":").append(message.getOfficeId());
+        }
+        if (message.getSequence() != 0) {
+            out.append(",\"seq\":").append(message.getSequence());
+        }
+        appendJsonField(out, "ticket", message.getTicketNumber());
+        appendJsonField(out, "officeName", message.getOfficeName());
+        appendJsonField(out, "text", message.getText());
+        List<String> tickets = message.getTickets();
+        if (!tickets.isEmpty()) {
+            out.append(",\"tickets\":[");
+            for (int i = 0; i < tickets.size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                appendJsonString(out, tickets.get(i));
+            }
+            out.append(']');
+        }
+        if (message.getTimestamp() != 0) {
+            out.append(",\"ts\":").append(message.getTimestamp());
+        }
+        appendJsonField(out, "rid", message.getRequestId());
+        if (message.getEpoch() != 0) {
+            out.append(",\"epoch\":").append(message.getEpoch());
+        }
+        if (message.getServiceMillis() != 0) {
+            out.append(",\"svc\":").append(message.getServiceMillis());
+        }
+        out.append('}');
+        return out.toString();
+    }
+
+    public static QueueMessage decodeJson(String json) {
+        JsonReader reader = new JsonReader(json);
+        MessageType type = null;
+        int officeId = 0;
+        long sequence = 0;
+        long timestamp = 0;
+        long epoch = 0;
+        long serviceMillis = 0;
+        String requestId = null;
+        String ticketNumber = null;
+        String officeName = null;
+        String text = null;
+        List<String> tickets = Collections.emptyList();
+
+        reader.expect('{');
+        if (!reader.consume('}')) {
+            do {
+                String key = reader.readString();
+                reader.expect(':');
+                switch (key) {
+                    case "v":
+                        checkVersion(reader.readLong());
+                        break;
+                    case "type":
+                        type = MessageType.valueOf(reader.readString());
+                        break;
+                    case "office":
+                        officeId = reader.readInt();
+                        break;
+                    case "seq":
+                        sequence = reader.readLong();
+                        break;
+                    case "ticket":
+                        ticketNumber = reader.readNullableString();
+                        break;
+                    case "officeName":
+                        officeName = reader.readNullableString();
+                        break;
+                    case "text":
+                        text = reader.readNullableString();
+                        break;
+                    case "tickets":
+                        tickets = reader.readStringArray();
+                        break;
+                    case "ts":
+                        timestamp = reader.readLong();
+                        break;
+                    case "rid":
+                        requestId = reader.readNullableString();
+                        break;
+                    case "epoch":
+                        epoch = reader.readLong();
+                        break;
+                    case "svc":
+                        serviceMillis = reader.readLong();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            } while (reader.consume(','));
+            reader.expect('}');
+        }
+        if (type == null) {
+            throw new IllegalArgumentException("Message has no type: " + json);
+        }
+        return new QueueMessage(type)
+                .withOfficeId(officeId)
+                .withSequence(sequence)
+                .withTicketNumber(ticketNumber)
+                .withOfficeName(officeName)
+                .withText(text)
+                .withTickets(tickets)
+                .withTimestamp(timestamp)
+                .withRequestId(requestId)
+                .withEpoch(epoch)
+                .withServiceMillis(serviceMillis);
+    }
+
+    public static ByteBuffer encodeBinary(QueueMessage message) {
+        byte[] ticket = utf8(message.getTicketNumber());
+        byte[] officeName = utf8(message.getOfficeName());
+        byte[] text = utf8(message.getText());
+        byte[] requestId = utf8(message.getRequestId());
+        List<String> tickets = message.getTickets();
+        byte[][] ticketBytes = new byte[tickets.size()][];
+        int ticketsLength = 4;
+        for (int i = 0; i < ticketBytes.length; i++) {
+            ticketBytes[i] = utf8(tickets.get(i));
+            ticketsLength += 2 + ticketBytes[i].length;
+        }
+
+        int size = 3;
+        size += message.getOfficeId() != 0 ? 5 + 4 : 0;
+        size += message.getSequence() != 0 ? 5 + 8 : 0;
+        size += ticket != null ? 5 + ticket.length : 0;
+        size += officeName != null ? 5 + officeName.length : 0;
+        size += text != null ? 5 + text.length : 0;
+        size += ticketBytes.length > 0 ? 5 + ticketsLength : 0;
+        size += message.getTimestamp() != 0 ? 5 + 8 : 0;
+        size += requestId != null ? 5 + requestId.length : 0;
+        size += message.getEpoch() != 0 ? 5 + 8 : 0;
+        size += message.getServiceMillis() != 0 ? 5 + 8 : 0;
+
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.put(MAGIC).put((byte) PROTOCOL_VERSION).put((byte) message.getType().getCode());
+        if (message.getOfficeId() != 0) {
+            putHeader(out, TAG_OFFICE, 4).putInt(message.getOfficeId());
+        }
+        if (message.getSequence() != 0) {
+            putHeader(out, TAG_SEQUENCE, 8).putLong(message.getSequence());
+        }
+        putBytes(out, TAG_TICKET, ticket);
+        putBytes(out, TAG_OFFICE_NAME, officeName);
+        putBytes(out, TAG_TEXT, text);
+        if (ticketBytes.length > 0) {
+            putHeader(out, TAG_TICKETS, ticketsLength).putInt(ticketBytes.length);
+            for (byte[] bytes : ticketBytes) {
+                out.putShort((short) bytes.length).put(bytes);
+            }
+        }
+        if (message.getTimestamp() != 0) {
+            putHeader(out, TAG_TIMESTAMP, 8).putLong(message.getTimestamp());
+        }
+        putBytes(out, TAG_REQUEST_ID, requestId);
+        if (message.getEpoch() != 0) {
+            putHeader(out, TAG_EPOCH, 8).putLong(message.getEpoch());
+        }
+        if (message.getServiceMillis() != 0) {
+            putHeader(out, TAG_SERVICE, 8).putLong(message.getServiceMillis());
+        }
+        out.flip();
+        return out;
+    }
+
+    public static QueueMessage decodeBinary(ByteBuffer frame) {
+        ByteBuffer in = frame.duplicate();
+        try {
+            if (in.get() != MAGIC) {
+                throw new IllegalArgumentException("Not a queue message frame.");
+            }
+            checkVersion(in.get() & 0xFF);
+            QueueMessage message = new QueueMessage(MessageType.fromCode(in.get() & 0xFF));
+            while (in.hasRemaining()) {
+                int tag = in.get() & 0xFF;
+                int length = in.getInt();
+                int end = in.position() + length;
+                switch (tag) {
+                    case TAG_OFFICE:
+                        message.withOfficeId(in.getInt());
+                        break;
+                    case TAG_SEQUENCE:
+                        message.withSequence(in.getLong());
+                        break;
+                    case TAG_TICKET:
+                        message.withTicketNumber(readUtf8(in, length));
+                        break;
+                    case TAG_OFFICE_NAME:
+                        message.withOfficeName(readUtf8(in, length));
+                        break;
+                    case TAG_TEXT:
+                        message.withText(readUtf8(in, length));
+                        break;
+                    case TAG_TICKETS:
+                        int count = in.getInt();
+                        List<String> tickets = new ArrayList<>(Math.min(count, in.remaining() / 2));
+                        for (int i = 0; i < count; i++) {
+                            tickets.add(readUtf8(in, in.getShort() & 0xFFFF));
+                        }
+                        message.withTickets(tickets);
+                        break;
+                    case TAG_TIMESTAMP:
+                        message.withTimestamp(in.getLong());
+                        break;
+                    case TAG_REQUEST_ID:
+                        message.withRequestId(readUtf8(in, length));
+                        break;
+                    case TAG_EPOCH:
+                        message.withEpoch(in.getLong());
+                        break;
+                    case TAG_SERVICE:
+                        message.withServiceMillis(in.getLong());
+                        break;
+                    default:
+                        break;
+                }
+                in.position(end);
+            }
+            return message;
+        } catch (RuntimeException e) {
+            if (e instanceof IllegalArgumentException) {
+                throw e;
+            }
+            throw new IllegalArgumentException("Truncated queue message frame.", e);
+        }
+    }
+
+    private static void checkVersion(long version) {
+        if (version < 1 || version > PROTOCOL_VERSION) {
+            throw new IllegalArgumentException("Unsupported protocol version " + version + "; this build speaks version " + PROTOCOL_VERSION + ".");
+        }
+    }
+
+    private static void appendJsonField(StringBuilder out, String name, String value) {
+        if (value != null) {
+            out.append(",\"").append(name).append("\":");
+            appendJsonString(out, value);
+        }
+    }
+
+    private static void appendJsonString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    private static ByteBuffer putHeader(ByteBuffer out, int tag, int length) {
+        return out.put((byte) tag).putInt(length);
+    }
+
+    private static void putBytes(ByteBuffer out, int tag, byte[] value) {
+        if (value != null) {
+            putHeader(out, tag, value.length).put(value);
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readUtf8(ByteBuffer in, int length) {
+        if (!in.hasArray()) {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    // Just enough of a JSON reader for the flat objects this protocol sends
+    private static class JsonReader {
+
+        private final String json;
+        private int pos;
+
+        JsonReader(String json) {
+            this.json = json;
+        }
+
+        void expect(char c) {
+            skipWhitespace();
+            if (pos >= json.length() || json.charAt(pos) != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        boolean consume(char c) {
+            skipWhitespace();
+            if (pos < json.length() && json.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        String readNullableString() {
+            skipWhitespace();
+            if (json.startsWith("null", pos)) {
+                pos += 4;
+                return null;
+            }
+            return readString();
+        }
+
+        String readString() {
+            expect('"');
+            StringBuilder value = null;
+            int start = pos;
+            while (pos < json.length()) {
+                char c = json.charAt(pos);
+                if (c == '"') {
+                    String result = value == null ? json.substring(start, pos) : value.append(json, start, pos).toString();
+                    pos++;
+                    return result;
+                }
+                if (c == '\\') {
+                    if (value == null) {
+                        value = new StringBuilder();
+                    }
+                    value.append(json, start, pos);
+                    value.append(readEscape());
+                    start = pos;
+                } else {
+                    pos++;
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        long readLong() {
+            skipWhitespace();
+            boolean negative = consume('-');
+            int start = pos;
+            long value = 0;
+            while (pos < json.length() && json.charAt(pos) >= '0' && json.charAt(pos) <= '9') {
+                int digit = json.charAt(pos) - '0';
+                if (value > (Long.MAX_VALUE - digit) / 10) {
+                    throw error("Number out of range");
+                }
+                value = value * 10 + digit;
+                pos++;
+            }
+            if (pos == start) {
+                throw error("Expected a number");
+            }
+            return negative ? -value : value;
+        }
+
+        int readInt() {
+            long value = readLong();
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw error("Number out of range");
+            }
+            return (int) value;
+        }
+
+        List<String> readStringArray() {
+            expect('[');
+            List<String> values = new ArrayList<>();
+            if (!consume(']')) {
+                do {
+                    values.add(readString());
+                } while (consume(','));
+                expect(']');
+            }
+            return values;
+        }
+
+        void skipValue() {
+            skipWhitespace();
+            if (pos >= json.length()) {
+                throw error("Expected a value");
+            }
+            char c = json.charAt(pos);
+            if (c == '"') {
+                readString();
+            } else if (c == '{' || c == '[') {
+                char close = c == '{' ? '}' : ']';
+                pos++;
+                if (!consume(close)) {
+                    do {
+                        if (c == '{') {
+                            readString();
+                            expect(':');
+                        }
+                        skipValue();
+                    } while (consume(','));
+                    expect(close);
+                }
+            } else {
+                while (pos < json.length() && ",}] \t\r\n".indexOf(json.charAt(pos)) < 0) {
+                    pos++;
+                }
+            }
+        }
+
+        private char readEscape() {
+            pos++;
+            if (pos >= json.length()) {
+                throw error("Unterminated escape");
+            }
+            char c = json.charAt(pos++);
+            switch (c) {
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'u':
+                    if (pos + 4 > json.length()) {
+                        throw error("Bad unicode escape");
+                    }
+                    char decoded = (char) Integer.parseInt(json.substring(pos, pos + 4), 16);
+                    pos += 4;
+                    return decoded;
+                default:
+                    return c;
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String problem) {
+            return new IllegalArgumentException(problem + " at position " + pos + " in message: " + json);
+        }
+    }
+}
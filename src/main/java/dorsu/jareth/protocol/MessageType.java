@@ -0,0 +1,52 @@
+package dorsu.jareth.protocol;
+
+public enum MessageType {
+
+    // Client to server
+    NEW_TICKET(1),
+    NEXT_TICKET(2),
+    SNAPSHOT_REQUEST(3),
+    CANCEL_TICKET(4),
+
+    // Replies to the client that sent a command
+    WELCOME(20),
+    TICKET_ISSUED(21),
+    TICKET_PRINTED(22),
+    NOW_SERVING(23),
+    TICKET_CANCELLED(24),
+    INFO(25),
+    ERROR(26),
+
+    // Published to every subscriber of an office
+    TICKET_ADDED(40),
+    TICKET_CALLED(41),
+    TICKET_REMOVED(42),
+    SNAPSHOT(43);
+
+    private static final MessageType[] BY_CODE = new MessageType[64];
+
+    static {
+        for (MessageType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    // Written on the wire in binary frames; never renumber an existing type
+    private final int code;
+
+    MessageType(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public static MessageType fromCode(int code) {
+        MessageType type = code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+        if (type == null) {
+            throw new IllegalArgumentException("Unknown message type code: " + code);
+        }
+        return type;
+    }
+}
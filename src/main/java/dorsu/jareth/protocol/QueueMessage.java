@@ -0,0 +1,140 @@
+package dorsu.jareth.protocol;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One message between a queue client and the server. Only the fields that
+ * make sense for the message type are set; the rest keep their defaults and
+ * are left out of the encoded form.
+ */
+public class QueueMessage {
+
+    private final MessageType type;
+    private int officeId;
+    private long sequence;
+    private String ticketNumber;
+    private String officeName;
+    private String text;
+    private List<String> tickets = Collections.emptyList();
+    private long timestamp;
+    private String requestId;
+    private long epoch;
+    private long serviceMillis;
+
+    public QueueMessage(MessageType type) {
+        this.type = type;
+    }
+
+    public static QueueMessage command(MessageType type, int officeId) {
+        return new QueueMessage(type).withOfficeId(officeId);
+    }
+
+    public MessageType getType() {
+        return type;
+    }
+
+    public int getOfficeId() {
+        return officeId;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public String getTicketNumber() {
+        return ticketNumber;
+    }
+
+    public String getOfficeName() {
+        return officeName;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public List<String> getTickets() {
+        return tickets;
+    }
+
+    // Server time in epoch milliseconds when the message was created
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    // Idempotency key a client puts on a command; the server copies it onto its reply
+    public String getRequestId() {
+        return requestId;
+    }
+
+    // Identifies one run of the server; event sequences restart whenever it changes
+    public long getEpoch() {
+        return epoch;
+    }
+
+    // The office's current average time between calls across its counters, sent with queue events and snapshots; 0 when unknown
+    public long getServiceMillis() {
+        return serviceMillis;
+    }
+
+    // Expected wait for the ticket at this 1-based queue position, 0 when the office has no estimate yet
+    public long getEstimatedWaitMillis(int position) {
+        return serviceMillis * position;
+    }
+
+    public QueueMessage withOfficeId(int officeId) {
+        this.officeId = officeId;
+        return this;
+    }
+
+    public QueueMessage withSequence(long sequence) {
+        this.sequence = sequence;
+        return this;
+    }
+
+    public QueueMessage withTicketNumber(String ticketNumber) {
+        this.ticketNumber = ticketNumber;
+        return this;
+    }
+
+    public QueueMessage withOfficeName(String officeName) {
+        this.officeName = officeName;
+        return this;
+    }
+
+    public QueueMessage withText(String text) {
+        this.text = text;
+        return this;
+    }
+
+    public QueueMessage withTickets(List<String> tickets) {
+        this.tickets = tickets;
+        return this;
+    }
+
+    public QueueMessage withTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+        return this;
+    }
+
+    public QueueMessage withRequestId(String requestId) {
+        this.requestId = requestId;
+        return this;
+    }
+
+    public QueueMessage withEpoch(long epoch) {
+        this.epoch = epoch;
+        return this;
+    }
+
+    public QueueMessage withServiceMillis(long serviceMillis) {
+        this.serviceMillis = serviceMillis;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return MessageCodec.encodeJson(this);
+    }
+}
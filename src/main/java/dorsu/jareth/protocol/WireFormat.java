@@ -0,0 +1,11 @@
+package dorsu.jareth.protocol;
+
+// Chosen by the client when it connects (?format=binary); JSON text frames are the default
+public enum WireFormat {
+    JSON,
+    BINARY;
+
+    public static WireFormat fromParameter(String value) {
+        return "binary".equalsIgnoreCase(value) ? BINARY : JSON;
+    }
+}
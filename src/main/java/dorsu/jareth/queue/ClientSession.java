@@ -0,0 +1,57 @@
+package dorsu.jareth.queue;
+
+import dorsu.jareth.protocol.WireFormat;
+import dorsu.jareth.util.Loggers;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * What a connection asked for in its handshake, e.g.
+ * ws://host:8080/?offices=1,3&format=binary. Stored as the WebSocket
+ * attachment for the lifetime of the connection.
+ */
+public class ClientSession {
+
+    private static final Logger LOG = Loggers.server(ClientSession.class);
+
+    private final Set<Integer> offices;
+    private final WireFormat format;
+
+    public ClientSession(Set<Integer> offices, WireFormat format) {
+        this.offices = Collections.unmodifiableSet(offices);
+        this.format = format;
+    }
+
+    public static ClientSession fromResourceDescriptor(String resourceDescriptor) {
+        Set<Integer> offices = new HashSet<>();
+        WireFormat format = WireFormat.JSON;
+        int queryStart = resourceDescriptor == null ? -1 : resourceDescriptor.indexOf('?');
+        if (queryStart >= 0) {
+            for (String parameter : resourceDescriptor.substring(queryStart + 1).split("&")) {
+                if (parameter.startsWith("offices=")) {
+                    for (String officeId : parameter.substring("offices=".length()).split(",")) {
+                        try {
+                            offices.add(Integer.parseInt(officeId.trim()));
+                        } catch (NumberFormatException e) {
+                            LOG.warn("Ignoring invalid office ID in subscription: {}", officeId);
+                        }
+                    }
+                } else if (parameter.startsWith("format=")) {
+                    format = WireFormat.fromParameter(parameter.substring("format=".length()));
+                }
+            }
+        }
+        return new ClientSession(offices, format);
+    }
+
+    // Empty when the client wants every office's events
+    public Set<Integer> getOffices() {
+        return offices;
+    }
+
+    public WireFormat getFormat() {
+        return format;
+    }
+}
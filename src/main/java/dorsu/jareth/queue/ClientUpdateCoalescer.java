@@ -0,0 +1,53 @@
+package dorsu.jareth.queue;
+
+import dorsu.jareth.protocol.QueueMessage;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javafx.animation.AnimationTimer;
+
+/**
+ * Hands server messages from the WebSocket thread to the FX thread once per
+ * rendering pulse (at most about 60 times a second) instead of one
+ * Platform.runLater per message. Every message that arrived since the last
+ * pulse is applied in order, then afterBatch runs once, so a burst of
+ * events costs one label and log refresh rather than one per event.
+ * {@link #requestFlush()} runs afterBatch on the next pulse even when no
+ * message arrives, for changes made locally, e.g. while disconnected.
+ */
+public class ClientUpdateCoalescer extends AnimationTimer {
+
+    private final Queue<QueueMessage> inbox = new ConcurrentLinkedQueue<>();
+    private final Consumer<QueueMessage> handler;
+    private final Runnable afterBatch;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    public ClientUpdateCoalescer(Consumer<QueueMessage> handler, Runnable afterBatch) {
+        this.handler = handler;
+        this.afterBatch = afterBatch;
+    }
+
+    // Safe to call from any thread
+    public void submit(QueueMessage message) {
+        inbox.offer(message);
+    }
+
+    // Safe to call from any thread
+    public void requestFlush() {
+        flushRequested.set(true);
+    }
+
+    @Override
+    public void handle(long now) {
+        boolean flush = flushRequested.getAndSet(false);
+        QueueMessage message;
+        while ((message = inbox.poll()) != null) {
+            handler.accept(message);
+            flush = true;
+        }
+        if (flush) {
+            afterBatch.run();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package dorsu.jareth.queue;
+
+import dorsu.jareth.util.DatabaseConnection;
+import dorsu.jareth.util.Loggers;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps ticket_daily_stats in step with the tickets table: one row per day,
+ * office and status with the ticket count plus summed wait seconds and
+ * time between calls, each with the number of tickets in its sum. The
+ * write-behind collects a batch's changes in one instance and
+ * writes them in the same transaction as the batch's ticket rows, so the
+ * charts can read this small table instead of grouping the whole ticket
+ * history.
+ *
+ * Wait time is from issue to call. The call interval is the time since the
+ * office's previous call by any of its counters, measured like
+ * {@link ServiceRateEstimator} does, and counted on the called ticket's row.
+ * Which counter served a ticket, and for how long, is not known. Averages
+ * divide each sum by its own count, never by ticket_count: tickets from
+ * before called_at was recorded are counted but have no wait.
+ */
+public class DailyStatsRollup {
+
+    private static final Logger LOG = Loggers.db(DailyStatsRollup.class);
+
+    private static final String BACKFILL_SQL = "INSERT INTO ticket_daily_stats (stat_date, office_id, status, ticket_count, wait_seconds_sum, wait_count) "
+            + "SELECT DATE(created_at), office_id, status, COUNT(*), COALESCE(SUM(TIMESTAMPDIFF(SECOND, created_at, called_at)), 0), COUNT(called_at) "
+            + "FROM tickets GROUP BY DATE(created_at), office_id, status";
+
+    private static final String UPSERT_SQL = "INSERT INTO ticket_daily_stats "
+            + "(stat_date, office_id, status, ticket_count, wait_seconds_sum, wait_count, call_interval_seconds_sum, call_interval_count) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE "
+            + "ticket_count = ticket_count + VALUES(ticket_count), "
+            + "wait_seconds_sum = wait_seconds_sum + VALUES(wait_seconds_sum), "
+            + "wait_count = wait_count + VALUES(wait_count), "
+            + "call_interval_seconds_sum = call_interval_seconds_sum + VALUES(call_interval_seconds_sum), "
+            + "call_interval_count = call_interval_count + VALUES(call_interval_count)";
+
+    // Changes not yet written, summed per row: ticket count, wait seconds, wait count, call interval seconds, call interval count
+    private final Map<Key, long[]> deltas = new LinkedHashMap<>();
+
+    public void recordIssued(QueuedTicket ticket) {
+        add(ticket, "pending", 1, 0, 0, 0, 0);
+    }
+
+    public void recordServed(QueuedTicket ticket, long waitSeconds) {
+        add(ticket, "pending", -1, 0, 0, 0, 0);
+        add(ticket, "served", 1, waitSeconds, 1, 0, 0);
+    }
+
+    public void recordRemoved(QueuedTicket ticket) {
+        add(ticket, "pending", -1, 0, 0, 0, 0);
+    }
+
+    public void recordCallInterval(QueuedTicket ticket, long intervalSeconds) {
+        add(ticket, "served", 0, 0, 0, intervalSeconds, 1);
+    }
+
+    // One batched upsert for everything recorded so far; rows whose changes cancel out are skipped
+    public void write(Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(UPSERT_SQL)) {
+            int rows = 0;
+            for (Map.Entry<Key, long[]> entry : deltas.entrySet()) {
+                long[] delta = entry.getValue();
+                if (delta[0] == 0 && delta[1] == 0 && delta[2] == 0 && delta[3] == 0 && delta[4] == 0) {
+                    continue;
+                }
+                Key key = entry.getKey();
+                stmt.setDate(1, Date.valueOf(key.day));
+                stmt.setInt(2, key.officeId);
+                stmt.setString(3, key.status);
+                stmt.setLong(4, delta[0]);
+                stmt.setLong(5, delta[1]);
+                stmt.setLong(6, delta[2]);
+                stmt.setLong(7, delta[3]);
+                stmt.setLong(8, delta[4]);
+                stmt.addBatch();
+                rows++;
+            }
+            if (rows > 0) {
+                stmt.executeBatch();
+            }
+        }
+        deltas.clear();
+    }
+
+    // Rebuilds the counts and waits from the tickets table; call intervals cannot be recovered and start again from zero
+    public static void rebuild() throws SQLException {
+        try (Connection connection = DatabaseConnection.getConnection()) {
+            connection.setAutoCommit(false);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate("DELETE FROM ticket_daily_stats");
+                stmt.executeUpdate(BACKFILL_SQL);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private void add(QueuedTicket ticket, String status, int count, long waitSeconds, int waitCount, long intervalSeconds, int intervalCount) {
+        // Rows are keyed by the day the ticket was issued, like the charts always grouped them
+        Key key = new Key(ticket.getCreatedAt().toLocalDate(), ticket.getOfficeId(), status);
+        long[] delta = deltas.computeIfAbsent(key, k -> new long[5]);
+        delta[0] += count;
+        delta[1] += waitSeconds;
+        delta[2] += waitCount;
+        delta[3] += intervalSeconds;
+        delta[4] += intervalCount;
+    }
+
+    // One-shot repair job: java -cp ... dorsu.jareth.queue.DailyStatsRollup
+    public static void main(String[] args) throws SQLException {
+        DatabaseConnection.migrateSchema();
+        rebuild();
+        LOG.info("Daily ticket statistics rebuilt.");
+        DatabaseConnection.closeConnection();
+    }
+
+    private static class Key {
+
+        final LocalDate day;
+        final int officeId;
+        final String status;
+
+        Key(LocalDate day, int officeId, String status) {
+            this.day = day;
+            this.officeId = officeId;
+            this.status = status;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return officeId == key.officeId && day.equals(key.day) && status.equals(key.status);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(day, officeId, status);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package dorsu.jareth.queue;
+
+import dorsu.jareth.queue.MainDashboard.Ticket;
+import dorsu.jareth.util.DatabaseConnection;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javafx.concurrent.Service;
+import javafx.concurrent.Task;
+
+/**
+ * Loads the dashboard's offices and pending tickets on a background thread.
+ * Call {@link #requestRefresh()} from the FX thread as often as you like:
+ * while a load is running, any number of further requests collapse into a
+ * single follow-up load once it finishes.
+ */
+public class DashboardDataService extends Service<DashboardDataService.DashboardData> {
+
+    // Shared by every dashboard; its one thread exits after a minute idle, so there is nothing to shut down
+    private static final ThreadPoolExecutor LOADER = createLoader();
+
+    private boolean refreshQueued;
+    private volatile boolean loadPendingTickets = true;
+    // Bumped whenever the pending tickets switch source, so a load that started before the switch can be told apart
+    private final AtomicLong generation = new AtomicLong();
+
+    private static ThreadPoolExecutor createLoader() {
+        ThreadPoolExecutor loader = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "dashboard-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loader.allowCoreThreadTimeOut(true);
+        return loader;
+    }
+
+    @Override
+    protected void executeTask(Task<DashboardData> task) {
+        LOADER.execute(task);
+    }
+
+    public void requestRefresh() {
+        if (isRunning()) {
+            refreshQueued = true;
+        } else {
+            restart();
+        }
+    }
+
+    // Off while the embedded server is running; the dashboard then follows its events instead
+    public void setLoadPendingTickets(boolean loadPendingTickets) {
+        this.loadPendingTickets = loadPendingTickets;
+        generation.incrementAndGet();
+    }
+
+    // False for a load that started before the last switch; its pending tickets must not be shown
+    public boolean isCurrent(DashboardData data) {
+        return data.generation == generation.get();
+    }
+
+    // Stops the running load and drops any refresh that was waiting behind it
+    public void cancelRefresh() {
+        refreshQueued = false;
+        cancel();
+    }
+
+    @Override
+    protected void succeeded() {
+        super.succeeded();
+        runQueuedRefresh();
+    }
+
+    @Override
+    protected void failed() {
+        super.failed();
+        runQueuedRefresh();
+    }
+
+    private void runQueuedRefresh() {
+        if (refreshQueued) {
+            refreshQueued = false;
+            restart();
+        }
+    }
+
+    @Override
+    protected Task<DashboardData> createTask() {
+        return new Task<>() {
+            @Override
+            protected DashboardData call() throws SQLException {
+                // Read before the flag, so a switch made in between always marks this load as stale
+                long loadGeneration = generation.get();
+                updateMessage("Loading offices...");
+                updateProgress(0, 2);
+                OfficeCache.reload();
+                List<Office> offices = OfficeCache.getAll();
+                if (isCancelled()) {
+                    return null;
+                }
+                if (!loadPendingTickets) {
+                    updateProgress(2, 2);
+                    return new DashboardData(loadGeneration, offices, null);
+                }
+                updateMessage("Loading pending tickets...");
+                updateProgress(1, 2);
+                List<Ticket> tickets = new ArrayList<>();
+                try (Connection connection = DatabaseConnection.getConnection();
+                     Statement stmt = connection.createStatement()) {
+                    // Office names are resolved from the cache instead of joining offices on every row
+                    try (ResultSet rs = stmt.executeQuery("SELECT t.id, t.office_id, t.ticket_number, t.status, t.created_at "
+                            + "FROM tickets t "
+                            + "WHERE t.pending_office_id IS NOT NULL")) {
+                        while (rs.next() && !isCancelled()) {
+                            tickets.add(Ticket.of(rs.getInt("id"), OfficeCache.getName(rs.getInt("office_id")), rs.getString("ticket_number"),
+                                    rs.getString("status"), rs.getTimestamp("created_at").toLocalDateTime()));
+                        }
+                    }
+                }
+                updateProgress(2, 2);
+                return new DashboardData(loadGeneration, offices, tickets);
+            }
+        };
+    }
+
+    public static class DashboardData {
+
+        private final long generation;
+        private final List<Office> offices;
+        private final List<Ticket> pendingTickets;
+
+        public DashboardData(long generation, List<Office> offices, List<Ticket> pendingTickets) {
+            this.generation = generation;
+            this.offices = offices;
+            this.pendingTickets = pendingTickets;
+        }
+
+        public List<Office> getOffices() {
+            return offices;
+        }
+
+        // Null when pending tickets were not loaded
+        public List<Ticket> getPendingTickets() {
+            return pendingTickets;
+        }
+    }
+}
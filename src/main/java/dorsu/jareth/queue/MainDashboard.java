@@ -1,15 +1,19 @@
 package dorsu.jareth.queue;
 
 import dorsu.jareth.auth.Authentication;
+import dorsu.jareth.util.DatabaseConnection;
+import dorsu.jareth.util.Loggers;
 import javafx.application.Application;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextArea;
@@ -26,16 +30,22 @@ import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.sql.*;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.net.InetAddress;
 import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.scene.control.Alert.AlertType;
+import org.apache.logging.log4j.Logger;
 
 public class MainDashboard extends Application {
 
+    private static final Logger LOG = Loggers.ui(MainDashboard.class);
+
     private TableView<Office> officesTable;
     private TableView<Ticket> ticketsTable;
     private Button startServerButton;
@@ -43,10 +53,14 @@ public class MainDashboard extends Application {
     private Button addNewOfficeButton;
     private Button viewTicketChartsButton;
     private Button viewTicketHistoryButton;
+    private Button viewServerMetricsButton;
     private Button startQueueButton;
     private Button deleteOfficeButton;
     private Button editOfficeButton;
     private Button logoutButton;
+    private Button refreshButton;
+    private Button cancelLoadButton;
+    private ProgressIndicator loadingIndicator;
     private ImageView dorsuLogo;
 
     private Stage dashboardStage;
@@ -55,6 +69,21 @@ public class MainDashboard extends Application {
     private ObservableList<Ticket> ticketData = FXCollections.observableArrayList();
     private QueueManagementServer server;
     private boolean serverStarted = false;
+    private boolean serverStopping = false;
+    private final DashboardDataService dataService = new DashboardDataService();
+    // Pending tickets on screen by ticket id, kept in step with ticketData while the embedded server runs
+    private final Map<Integer, Ticket> pendingById = new HashMap<>();
+    private QueueListener liveTicketListener;
+
+    // Runs on the launcher thread before start(), so the FX thread never waits on a migration
+    @Override
+    public void init() {
+        try {
+            DatabaseConnection.migrateSchema();
+        } catch (SQLException e) {
+            LOG.error("Could not migrate the database: {}", e.getMessage());
+        }
+    }
 
     @Override
     public void start(Stage primaryStage) {
@@ -62,7 +91,7 @@ public class MainDashboard extends Application {
         primaryStage.getIcons().add(icon);
         dashboardStage = primaryStage;
         primaryStage.setOnCloseRequest(event -> {
-            System.out.println("Application closing...");
+            LOG.info("Application closing...");
             Platform.exit();
             System.exit(0);
         });
@@ -74,10 +103,17 @@ public class MainDashboard extends Application {
         addNewOfficeButton = createButton("Add new Office", 51, 302, 124, 25);
         viewTicketChartsButton = createButton("View Ticket Charts", 51, 344, 124, 25);
         viewTicketHistoryButton = createButton("View Ticket History", 51, 384, 124, 25);
+        viewServerMetricsButton = createButton("View Server Metrics", 51, 424, 124, 25);
         startQueueButton = createButton("Start Queue", 229, 661, 97, 25);
         deleteOfficeButton = createButton("Delete Office", 343, 661, 97, 25);
         editOfficeButton = createButton("Edit Office", 453, 661, 97, 25);
         logoutButton = createButton("Logout", 28, 661, 97, 25);
+        refreshButton = createButton("Refresh", 563, 661, 97, 25);
+        cancelLoadButton = createButton("Cancel", 710, 661, 97, 25);
+        loadingIndicator = new ProgressIndicator();
+        loadingIndicator.setLayoutX(673);
+        loadingIndicator.setLayoutY(661);
+        loadingIndicator.setPrefSize(25, 25);
         dorsuLogo = createImageView(28, 14, 179, 169);
 
         fetchDataFromDatabase();
@@ -88,7 +124,7 @@ public class MainDashboard extends Application {
         root.setStyle("-fx-background-color: #f0f0f0;");
 
         VBox buttonBox = new VBox(10);
-        buttonBox.getChildren().addAll(startServerButton, stopServerButton, addNewOfficeButton, viewTicketChartsButton, viewTicketHistoryButton);
+        buttonBox.getChildren().addAll(startServerButton, stopServerButton, addNewOfficeButton, viewTicketChartsButton, viewTicketHistoryButton, viewServerMetricsButton);
         buttonBox.setPadding(new Insets(20, 20, 20, 20));
         buttonBox.setLayoutX(30);
         buttonBox.setLayoutY(190);
@@ -102,7 +138,7 @@ public class MainDashboard extends Application {
         officesAndTickets.setLayoutX(229);
         officesAndTickets.setLayoutY(16);
 
-        root.getChildren().addAll(officesAndTickets, startServerButton, dorsuLogo, stopServerButton, addNewOfficeButton, viewTicketChartsButton, viewTicketHistoryButton, startQueueButton, deleteOfficeButton, editOfficeButton, logoutButton);
+        root.getChildren().addAll(officesAndTickets, startServerButton, dorsuLogo, stopServerButton, addNewOfficeButton, viewTicketChartsButton, viewTicketHistoryButton, viewServerMetricsButton, startQueueButton, deleteOfficeButton, editOfficeButton, logoutButton, refreshButton, loadingIndicator, cancelLoadButton);
 
         Scene scene = new Scene(root);
         primaryStage.setScene(scene);
@@ -117,14 +153,21 @@ public class MainDashboard extends Application {
             try {
                 viewTicketCharts();
             } catch (Exception ex) {
-                ex.printStackTrace(); // Handle exceptions properly
+                LOG.error("Could not open the ticket charts", ex);
             }
         });
         viewTicketHistoryButton.setOnAction(e -> {
             try {
                 viewTicketHistory();
             } catch (Exception ex) {
-                ex.printStackTrace(); // Handle exceptions properly
+                LOG.error("Could not open the ticket history", ex);
+            }
+        });
+        viewServerMetricsButton.setOnAction(e -> {
+            try {
+                viewServerMetrics();
+            } catch (Exception ex) {
+                LOG.error("Could not open the server metrics", ex);
             }
         });
         startQueueButton.setOnAction(e -> {
@@ -139,12 +182,14 @@ public class MainDashboard extends Application {
             try {
                 logout();
             } catch (InterruptedException x) {
-                x.printStackTrace(); // Handle exceptions properly
+                LOG.error("Interrupted while logging out", x);
             }
         });
         deleteOfficeButton.setOnAction(e -> deleteOffice());
         // Add action handler for editOfficeButton
         editOfficeButton.setOnAction(e -> editOffice());
+        refreshButton.setOnAction(e -> refreshOfficesTable());
+        cancelLoadButton.setOnAction(e -> dataService.cancelRefresh());
     }
 
     private Button createButton(String text, double layoutX, double layoutY, double prefWidth, double prefHeight) {
@@ -215,53 +260,94 @@ public class MainDashboard extends Application {
         return tableView;
     }
 
+    // Wires the background loader to the tables once; every later refresh goes through refreshOfficesTable
     private void fetchDataFromDatabase() {
-        try (Connection connection = DriverManager.getConnection("jdbc:mysql://localhost:3306/queue_management", "root", "")) {
-            String sql = "SELECT id, name, details, created_at FROM offices";
-            try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
-                while (rs.next()) {
-                    int id = rs.getInt("id");
-                    String name = rs.getString("name");
-                    String details = rs.getString("details");
-                    Timestamp createdAtTimestamp = rs.getTimestamp("created_at");
-                    LocalDateTime createdAt = LocalDateTime.ofInstant(createdAtTimestamp.toInstant(), ZoneId.systemDefault());
-                    officeData.add(new Office(id, name, details, createdAt));
+        officesTable.setItems(officeData);
+        ticketsTable.setItems(ticketData);
+        loadingIndicator.progressProperty().bind(dataService.progressProperty());
+        loadingIndicator.visibleProperty().bind(dataService.runningProperty());
+        cancelLoadButton.visibleProperty().bind(dataService.runningProperty());
+        dataService.setOnSucceeded(e -> {
+            DashboardDataService.DashboardData data = dataService.getValue();
+            if (data != null) {
+                officeData.setAll(data.getOffices());
+                // A load that began before the switch to the server's events would overwrite the live list
+                if (data.getPendingTickets() != null && dataService.isCurrent(data)) {
+                    showPendingTickets(data.getPendingTickets());
                 }
             }
-            officesTable.setItems(officeData);
-        } catch (SQLException e) {
-            System.err.println("Error fetching data from database: " + e.getMessage());
-            showAlert("Database Error", "Could not fetch office data: " + e.getMessage(), Alert.AlertType.ERROR);
+        });
+        dataService.setOnFailed(e -> {
+            Throwable error = dataService.getException();
+            LOG.error("Error fetching data from database: {}", error.getMessage());
+            showAlert("Database Error", "Could not fetch dashboard data: " + error.getMessage(), Alert.AlertType.ERROR);
+        });
+        dataService.requestRefresh();
+    }
+
+    private void showPendingTickets(List<Ticket> tickets) {
+        pendingById.clear();
+        for (Ticket ticket : tickets) {
+            pendingById.put(ticket.getId(), ticket);
         }
-        try (Connection connection = DriverManager.getConnection("jdbc:mysql://localhost:3306/queue_management", "root", "")) {
-            String sql = "SELECT o.name as office_name, t.ticket_number, t.status, t.created_at "
-                    + "FROM offices o JOIN tickets t ON o.id = t.office_id "
-                    + "WHERE t.status = 'pending'";
-
-            try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
-                while (rs.next()) {
-                    String officeName = rs.getString("office_name");
-                    String ticketNumber = rs.getString("ticket_number");
-                    String status = rs.getString("status");
-                    Timestamp createdAtTimestamp = rs.getTimestamp("created_at");
-                    LocalDateTime createdAt = LocalDateTime.ofInstant(createdAtTimestamp.toInstant(), ZoneId.systemDefault());
-
-                    // Format the date and time
-                    DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("MMMM dd, yyyy");
-                    DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("h:mm a"); // 12-hour format with AM/PM
-
-                    String formattedDate = createdAt.format(dateFormatter);
-                    String formattedTime = createdAt.format(timeFormatter);
-
-                    ticketData.add(new Ticket(officeName, ticketNumber, status, formattedDate, formattedTime)); // Modified Ticket constructor
-                }
+        ticketData.setAll(tickets);
+    }
+
+    /**
+     * Switches the pending table to the embedded server's events. Called on
+     * the FX thread; the starting list is read from the engine after the
+     * listener is registered: an event that raced with it is applied again
+     * afterwards, which is harmless because adds and removals are keyed by
+     * ticket id.
+     */
+    private void followServerEvents(QueueEngine engine) {
+        liveTicketListener = new QueueListener() {
+            @Override
+            public void ticketAdded(long sequence, QueuedTicket ticket) {
+                Platform.runLater(() -> addPendingTicket(ticket));
             }
-            ticketsTable.setItems(ticketData);
-        } catch (SQLException e) {
-            System.err.println("Error fetching ticket data from database: " + e.getMessage());
-            showAlert("Database Error", "Could not fetch ticket data: " + e.getMessage(), Alert.AlertType.ERROR);
+
+            @Override
+            public void ticketCalled(long sequence, QueuedTicket ticket) {
+                Platform.runLater(() -> removePendingTicket(ticket));
+            }
+
+            @Override
+            public void ticketRemoved(long sequence, QueuedTicket ticket) {
+                Platform.runLater(() -> removePendingTicket(ticket));
+            }
+        };
+        engine.addListener(liveTicketListener);
+        dataService.setLoadPendingTickets(false);
+        List<Ticket> tickets = new ArrayList<>();
+        for (QueuedTicket ticket : engine.getAllPendingTickets()) {
+            tickets.add(Ticket.of(ticket));
+        }
+        showPendingTickets(tickets);
+    }
+
+    private void stopFollowingServerEvents(QueueEngine engine) {
+        if (liveTicketListener != null) {
+            engine.removeListener(liveTicketListener);
+            liveTicketListener = null;
+        }
+        dataService.setLoadPendingTickets(true);
+        refreshOfficesTable();
+    }
+
+    private void addPendingTicket(QueuedTicket queued) {
+        if (!pendingById.containsKey(queued.getId())) {
+            Ticket ticket = Ticket.of(queued);
+            pendingById.put(ticket.getId(), ticket);
+            ticketData.add(ticket);
         }
+    }
 
+    private void removePendingTicket(QueuedTicket queued) {
+        Ticket ticket = pendingById.remove(queued.getId());
+        if (ticket != null) {
+            ticketData.remove(ticket);
+        }
     }
 
     private void startServer() {
@@ -269,7 +355,7 @@ public class MainDashboard extends Application {
             showAlert("Server Status", "Server is already running.", Alert.AlertType.WARNING);
             return;
         }
-        System.out.println("Starting server...");
+        LOG.info("Starting server...");
         String lanIp = getLanIpAddress();
         if (lanIp == null) {
             showAlert("Server Error", "Could not determine LAN IP address.", Alert.AlertType.ERROR);
@@ -279,14 +365,19 @@ public class MainDashboard extends Application {
         InetSocketAddress serverAddress = new InetSocketAddress(lanIp, port);
 
         server = new QueueManagementServer(serverAddress);
+        QueueManagementServer starting = server;
         new Thread(() -> {
             try {
-                server.start();
-                serverStarted = true;
-                System.out.println("Server started successfully on " + lanIp + ":" + port);
-                Platform.runLater(() -> showAlert("Server Status", "Server started successfully on " + lanIp + ":" + port, Alert.AlertType.INFORMATION));
+                starting.start();
+                LOG.info("Server started successfully on {}:{}", lanIp, port);
+                // The dashboard's state is only touched on the FX thread
+                Platform.runLater(() -> {
+                    serverStarted = true;
+                    followServerEvents(starting.getQueueEngine());
+                    showAlert("Server Status", "Server started successfully on " + lanIp + ":" + port, Alert.AlertType.INFORMATION);
+                });
             } catch (Exception e) {
-                System.err.println("Error starting server: " + e.getMessage());
+                LOG.error("Error starting server: {}", e.getMessage());
                 Platform.runLater(() -> showAlert("Server Error", "Could not start the server: " + e.getMessage(), Alert.AlertType.ERROR));
             }
         }).start();
@@ -311,26 +402,55 @@ public class MainDashboard extends Application {
                 }
             }
         } catch (SocketException e) {
-            System.err.println("Error getting network interfaces: " + e.getMessage());
+            LOG.error("Error getting network interfaces: {}", e.getMessage());
         }
         return null;
     }
 
+    /**
+     * Stops the embedded server on a background thread. Stopping waits for
+     * the request workers, the ticket printer and the database writer to
+     * finish, which can take many seconds, so the dashboard stays responsive
+     * and is updated once the server is down.
+     */
     private void stopServer() {
         if (!serverStarted) {
             showAlert("Server Status", "Server is not running.", Alert.AlertType.WARNING);
             return;
         }
-        System.out.println("Stopping server...");
-        try {
-            server.stop(10000);
-            serverStarted = false;
-            System.out.println("Server stopped successfully.");
-            Platform.runLater(() -> showAlert("Server Status", "Server stopped successfully.", Alert.AlertType.INFORMATION));
-        } catch (InterruptedException e) {
-            System.err.println("Error stopping server: " + e.getMessage());
-            Platform.runLater(() -> showAlert("Server Error", "Could not stop the server: " + e.getMessage(), Alert.AlertType.ERROR));
+        if (serverStopping) {
+            showAlert("Server Status", "Server is already stopping.", Alert.AlertType.WARNING);
+            return;
         }
+        LOG.info("Stopping server...");
+        serverStopping = true;
+        stopServerButton.setDisable(true);
+        QueueManagementServer stopping = server;
+        Task<Void> stopTask = new Task<>() {
+            @Override
+            protected Void call() throws InterruptedException {
+                stopping.stop(10000);
+                return null;
+            }
+        };
+        stopTask.setOnSucceeded(e -> {
+            serverStarted = false;
+            serverStopping = false;
+            stopServerButton.setDisable(false);
+            stopFollowingServerEvents(stopping.getQueueEngine());
+            LOG.info("Server stopped successfully.");
+            showAlert("Server Status", "Server stopped successfully.", Alert.AlertType.INFORMATION);
+        });
+        stopTask.setOnFailed(e -> {
+            serverStopping = false;
+            stopServerButton.setDisable(false);
+            Throwable error = stopTask.getException();
+            LOG.error("Error stopping server: {}", error.getMessage());
+            showAlert("Server Error", "Could not stop the server: " + error.getMessage(), Alert.AlertType.ERROR);
+        });
+        Thread stopThread = new Thread(stopTask, "server-stop");
+        stopThread.setDaemon(true);
+        stopThread.start();
     }
 
     private void addNewOffice() {
@@ -381,51 +501,59 @@ public class MainDashboard extends Application {
     }
 
     private void addOfficeToDatabase(String officeName, String officeDetails) {
-        try (Connection connection = DriverManager.getConnection("jdbc:mysql://localhost:3306/queue_management", "root", "")) {
+        try (Connection connection = DatabaseConnection.getConnection()) {
             String sql = "INSERT INTO offices (name, details, created_at) VALUES (?, ?, NOW())";
             try (PreparedStatement stmt = connection.prepareStatement(sql)) {
                 stmt.setString(1, officeName);
                 stmt.setString(2, officeDetails);
                 int rowsAffected = stmt.executeUpdate();
                 if (rowsAffected > 0) {
-                    System.out.println("Office added successfully.");
+                    OfficeCache.invalidate();
+                    LOG.info("Office added successfully.");
                     showAlert("Success", "Office added successfully.", Alert.AlertType.INFORMATION);
                 } else {
-                    System.out.println("Failed to add office.");
+                    LOG.warn("Failed to add office.");
                     showAlert("Error", "Failed to add office. Please check the data and try again.", Alert.AlertType.ERROR);
                 }
             }
         } catch (SQLException e) {
-            System.err.println("Error adding office to database: " + e.getMessage());
+            LOG.error("Error adding office to database: {}", e.getMessage());
             showAlert("Database Error", "Could not add office to database: " + e.getMessage(), Alert.AlertType.ERROR);
         }
     }
 
     private void refreshOfficesTable() {
-        officeData.clear();
-        fetchDataFromDatabase();
+        dataService.requestRefresh();
     }
 
     private void viewTicketCharts() throws Exception {
-        System.out.println("View Ticket Charts action performed");
+        LOG.info("View Ticket Charts action performed");
         TicketsCharts app = new TicketsCharts();
         Stage primaryStage = new Stage();
         app.start(primaryStage);
         primaryStage.show();
-        System.out.println("Displaying dashboard...");
+        LOG.info("Displaying dashboard...");
     }
 
     private void viewTicketHistory() throws Exception {
-        System.out.println("View Ticket History action performed");
+        LOG.info("View Ticket History action performed");
         TicketsTable app = new TicketsTable();
         Stage primaryStage = new Stage();
         app.start(primaryStage);
         primaryStage.show();
-        System.out.println("Displaying queue history...");
+        LOG.info("Displaying queue history...");
+    }
+
+    private void viewServerMetrics() throws Exception {
+        LOG.info("View Server Metrics action performed");
+        ServerMetricsView app = new ServerMetricsView();
+        Stage primaryStage = new Stage();
+        app.start(primaryStage);
+        primaryStage.show();
     }
 
     private void startQueue(int officeID) {
-        System.out.println("Start Queue action performed for office ID: " + officeID);
+        LOG.info("Start Queue action performed for office ID: {}", officeID);
         if (serverStarted) {
             try {
                 QueueManagementApp queueApp = new QueueManagementApp(officeID);
@@ -433,7 +561,7 @@ public class MainDashboard extends Application {
                 queueApp.start(queueStage);
                 queueStage.show();
             } catch (Exception e) {
-                System.err.println("Error starting queue application: " + e.getMessage());
+                LOG.error("Error starting queue application: {}", e.getMessage());
                 showAlert("Error", "Could not start the queue application: " + e.getMessage(), Alert.AlertType.ERROR);
             }
         } else {
@@ -464,12 +592,81 @@ public class MainDashboard extends Application {
     }
 
     private void editOffice() {
+        Office selectedOffice = officesTable.getSelectionModel().getSelectedItem();
+        if (selectedOffice == null) {
+            showAlert("Selection Required", "Please select an office from the table.", AlertType.WARNING);
+            return;
+        }
+        Stage editOfficeStage = new Stage();
+        editOfficeStage.setTitle("Edit Office");
 
+        AnchorPane editOfficePane = new AnchorPane();
+        editOfficePane.setStyle("-fx-background-color: #f0f0f0;");
+        editOfficePane.setPrefSize(300, 200);
+
+        Label nameLabel = new Label("Office Name:");
+        nameLabel.setLayoutX(20);
+        nameLabel.setLayoutY(20);
+
+        TextField nameField = new TextField(selectedOffice.getName());
+        nameField.setLayoutX(120);
+        nameField.setLayoutY(15);
+        nameField.setPrefWidth(150);
+
+        Label detailsLabel = new Label("Details:");
+        detailsLabel.setLayoutX(20);
+        detailsLabel.setLayoutY(60);
+
+        TextArea detailsArea = new TextArea(selectedOffice.getDetails());
+        detailsArea.setLayoutX(120);
+        detailsArea.setLayoutY(55);
+        detailsArea.setPrefSize(150, 80);
+
+        Button saveButton = new Button("Save Changes");
+        saveButton.setLayoutX(100);
+        saveButton.setLayoutY(150);
+        saveButton.setOnAction(e -> {
+            String officeName = nameField.getText();
+            if (officeName.isEmpty()) {
+                showAlert("Error", "Office name cannot be empty.", Alert.AlertType.ERROR);
+                return;
+            }
+            if (updateOfficeInDatabase(selectedOffice.getId(), officeName, detailsArea.getText())) {
+                editOfficeStage.close();
+                refreshOfficesTable();
+            }
+        });
+
+        editOfficePane.getChildren().addAll(nameLabel, nameField, detailsLabel, detailsArea, saveButton);
+        editOfficeStage.setScene(new Scene(editOfficePane));
+        editOfficeStage.show();
+    }
+
+    private boolean updateOfficeInDatabase(int officeId, String officeName, String officeDetails) {
+        try (Connection connection = DatabaseConnection.getConnection()) {
+            String sql = "UPDATE offices SET name = ?, details = ? WHERE id = ?";
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setString(1, officeName);
+                stmt.setString(2, officeDetails);
+                stmt.setInt(3, officeId);
+                if (stmt.executeUpdate() > 0) {
+                    OfficeCache.invalidate();
+                    showAlert("Success", "Office updated successfully.", AlertType.INFORMATION);
+                    return true;
+                }
+                showAlert("Error", "No office found with that ID.", AlertType.ERROR);
+                return false;
+            }
+        } catch (SQLException e) {
+            LOG.error("Error updating office in database: {}", e.getMessage());
+            showAlert("Database Error", "Could not update office: " + e.getMessage(), AlertType.ERROR);
+            return false;
+        }
     }
 
     // Modified to return a boolean indicating success or failure
     private boolean deleteOfficeFromDatabase(int officeId) {
-        try (Connection connection = DriverManager.getConnection("jdbc:mysql://localhost:3306/queue_management", "root", "")) {
+        try (Connection connection = DatabaseConnection.getConnection()) {
             // First check if there are any tickets associated with the office
             String checkSql = "SELECT COUNT(*) FROM tickets WHERE office_id = ?";
             try (PreparedStatement checkStmt = connection.prepareStatement(checkSql)) {
@@ -488,6 +685,7 @@ public class MainDashboard extends Application {
                 deleteStmt.setInt(1, officeId);
                 int rowsAffected = deleteStmt.executeUpdate();
                 if (rowsAffected > 0) {
+                    OfficeCache.invalidate();
                     showAlert("Success", "Office deleted successfully.", AlertType.INFORMATION);
                     return true;
                 } else {
@@ -496,7 +694,7 @@ public class MainDashboard extends Application {
                 }
             }
         } catch (SQLException e) {
-            System.err.println("Error deleting office from database: " + e.getMessage());
+            LOG.error("Error deleting office from database: {}", e.getMessage());
             showAlert("Database Error", "Could not delete office from database: " + e.getMessage(), AlertType.ERROR);
             return false;
         }
@@ -518,9 +716,9 @@ public class MainDashboard extends Application {
             app.start(primaryStage);
             primaryStage.show();
             this.dashboardStage.close();
-            System.out.println("Logging out...");
+            LOG.info("Logging out...");
         } else {
-            System.out.println("Logout cancelled.");
+            LOG.info("Logout cancelled.");
         }
     }
 
@@ -536,47 +734,21 @@ public class MainDashboard extends Application {
         launch(args);
     }
 
-    public static class Office {
-
-        private final int id;
-        private final String name;
-        private final String details;
-        private final LocalDateTime createdAt;
-
-        public Office(int id, String name, String details, LocalDateTime createdAt) {
-            this.id = id;
-            this.name = name;
-            this.details = details;
-            this.createdAt = createdAt;
-        }
-
-        public int getId() {
-            return id;
-        }
-
-        public String getName() {
-            return name;
-        }
-
-        public String getDetails() {
-            return details;
-        }
-
-        public LocalDateTime getCreatedAt() {
-            return createdAt;
-        }
-    }
-
     // Add a Ticket class (You MUST implement this)
     public static class Ticket {
 
+        private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MMMM dd, yyyy");
+        private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("h:mm a"); // 12-hour format with AM/PM
+
+        private int id;
         private String officeName;
         private String ticketNumber;
         private String status;
         private String formattedDate; // Added formatted date string
         private String formattedTime; // Added formatted time string
 
-        public Ticket(String officeName, String ticketNumber, String status, String formattedDate, String formattedTime) {
+        public Ticket(int id, String officeName, String ticketNumber, String status, String formattedDate, String formattedTime) {
+            this.id = id;
             this.officeName = officeName;
             this.ticketNumber = ticketNumber;
             this.status = status;
@@ -584,7 +756,19 @@ public class MainDashboard extends Application {
             this.formattedTime = formattedTime;
         }
 
+        public static Ticket of(int id, String officeName, String ticketNumber, String status, LocalDateTime createdAt) {
+            return new Ticket(id, officeName, ticketNumber, status, createdAt.format(DATE_FORMAT), createdAt.format(TIME_FORMAT));
+        }
+
+        public static Ticket of(QueuedTicket ticket) {
+            return of(ticket.getId(), OfficeCache.getName(ticket.getOfficeId()), ticket.getTicketNumber(), "pending", ticket.getCreatedAt());
+        }
+
         // Getters (add getters for formattedDate and formattedTime)
+        public int getId() {
+            return id;
+        }
+
         public String getOfficeName() {
             return officeName;
         }
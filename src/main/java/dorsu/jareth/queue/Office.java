@@ -0,0 +1,35 @@
+package dorsu.jareth.queue;
+
+import java.time.LocalDateTime;
+
+// A row of the offices table, shared by the dashboard and OfficeCache
+public class Office {
+
+    private final int id;
+    private final String name;
+    private final String details;
+    private final LocalDateTime createdAt;
+
+    public Office(int id, String name, String details, LocalDateTime createdAt) {
+        this.id = id;
+        this.name = name;
+        this.details = details;
+        this.createdAt = createdAt;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDetails() {
+        return details;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+}
@@ -0,0 +1,194 @@
+package dorsu.jareth.queue;
+
+import dorsu.jareth.metrics.Metrics;
+import dorsu.jareth.util.AppConfig;
+import dorsu.jareth.util.DatabaseConnection;
+import dorsu.jareth.util.Loggers;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Process-wide copy of the offices table. Ticket handling reads office names
+ * from here instead of querying MySQL, and MainDashboard invalidates the copy
+ * whenever it adds, edits or deletes an office. Offices changed by another
+ * process are picked up on the next full reload, at most
+ * office.cacheTtlMillis later. That reload runs on a background thread while
+ * readers keep getting the previous copy, so an expired or unreachable table
+ * never slows down a lookup.
+ *
+ * A lookup is always answered from the copy. An office missing from it
+ * starts a background reload instead of a query of its own, at most once
+ * every office.missReloadMillis, so an office added by another process is
+ * known within moments while made-up ids cost no more than that one reload.
+ */
+public class OfficeCache {
+
+    private static final Logger LOG = Loggers.db(OfficeCache.class);
+
+    private static final long TTL_MILLIS = AppConfig.getLong("office.cacheTtlMillis", 300000);
+    private static final long MISS_RELOAD_MILLIS = AppConfig.getLong("office.missReloadMillis", 5000);
+
+    // Replaced as a whole on every change, so readers never need a lock
+    private static volatile Map<Integer, Office> offices;
+    private static volatile long loadedAt;
+    // Whether the offices table has been read at least once since startup
+    private static volatile boolean loadedOnce;
+    // Bumped by invalidate, so a reload that read the table before the change does not count as fresh
+    private static volatile long changes;
+    private static final Object RELOAD_LOCK = new Object();
+    private static final AtomicBoolean refreshing = new AtomicBoolean();
+    private static final AtomicLong lastMissReload = new AtomicLong();
+    private static final Executor refresher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "office-cache-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private OfficeCache() {
+    }
+
+    public static String getName(int officeId) {
+        Office office = get(officeId);
+        return office != null ? office.getName() : null;
+    }
+
+    public static Office get(int officeId) {
+        Office office = current().get(officeId);
+        if (office == null && loadedOnce) {
+            // Possibly added since the last load; until the table has loaded at all, a miss says nothing
+            long now = System.currentTimeMillis();
+            long last = lastMissReload.get();
+            if (now - last > MISS_RELOAD_MILLIS && lastMissReload.compareAndSet(last, now)) {
+                refreshInBackground();
+            }
+        }
+        return office;
+    }
+
+    // Answered from the cached offices only, without looking a missing one up
+    public static boolean contains(int officeId) {
+        Map<Integer, Office> current = offices;
+        return current != null && current.get(officeId) != null;
+    }
+
+    public static boolean isLoaded() {
+        return loadedOnce;
+    }
+
+    // Every known office ordered by id
+    public static List<Office> getAll() {
+        List<Office> all = new ArrayList<>();
+        for (Office office : current().values()) {
+            if (office != null) {
+                all.add(office);
+            }
+        }
+        all.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+        return all;
+    }
+
+    /**
+     * Reloads the table in the background after an office was added, edited
+     * or deleted. Lookups keep getting the previous copy until then, so an
+     * edited office is never briefly unknown.
+     */
+    public static void invalidate() {
+        synchronized (OfficeCache.class) {
+            changes++;
+            loadedAt = 0;
+        }
+        refreshInBackground();
+    }
+
+    /**
+     * Reads the whole offices table. If it fails, whatever was cached is kept
+     * and the next attempt is one TTL away.
+     */
+    public static void reload() throws SQLException {
+        synchronized (RELOAD_LOCK) {
+            long changesBefore = changes;
+            Map<Integer, Office> loaded = new HashMap<>();
+            long start = System.nanoTime();
+            try (Connection connection = DatabaseConnection.getConnection();
+                 Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT id, name, details, created_at FROM offices")) {
+                while (rs.next()) {
+                    Office office = toOffice(rs);
+                    loaded.put(office.getId(), office);
+                }
+            } catch (SQLException e) {
+                synchronized (OfficeCache.class) {
+                    if (offices == null) {
+                        offices = Collections.emptyMap();
+                    }
+                    loadedAt = System.currentTimeMillis();
+                }
+                throw e;
+            } finally {
+                Metrics.database("load_offices").recordSince(start);
+            }
+            synchronized (OfficeCache.class) {
+                offices = loaded;
+                // Changed while reading: serve it, but reload again on the next lookup
+                loadedAt = changes == changesBefore ? System.currentTimeMillis() : 0;
+                loadedOnce = true;
+            }
+        }
+    }
+
+    private static Map<Integer, Office> current() {
+        Map<Integer, Office> current = offices;
+        if (current == null) {
+            // First use in a process that never called reload(), e.g. a client showing an office name
+            synchronized (RELOAD_LOCK) {
+                if (offices == null) {
+                    try {
+                        reload();
+                    } catch (SQLException e) {
+                        LOG.error("Error loading offices: {}", e.getMessage());
+                    }
+                }
+            }
+            return offices;
+        }
+        if (System.currentTimeMillis() - loadedAt > TTL_MILLIS) {
+            refreshInBackground();
+        }
+        return current;
+    }
+
+    // Readers keep the current copy meanwhile; a reload already running covers this request too
+    private static void refreshInBackground() {
+        if (refreshing.compareAndSet(false, true)) {
+            refresher.execute(() -> {
+                try {
+                    reload();
+                } catch (SQLException e) {
+                    LOG.error("Error reloading offices, keeping the previous copy: {}", e.getMessage());
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        }
+    }
+
+    private static Office toOffice(ResultSet rs) throws SQLException {
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        return new Office(rs.getInt("id"), rs.getString("name"), rs.getString("details"),
+                createdAt != null ? createdAt.toLocalDateTime() : LocalDateTime.now());
+    }
+}
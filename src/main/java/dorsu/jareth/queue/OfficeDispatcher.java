@@ -0,0 +1,108 @@
+package dorsu.jareth.queue;
+
+import dorsu.jareth.util.AppConfig;
+import dorsu.jareth.util.Loggers;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs client requests off the WebSocket I/O thread. Requests for different
+ * offices run in parallel on the worker executor, while requests for the
+ * same office run one at a time in the order they arrived.
+ *
+ * The executor is picked with server.executor in config.properties:
+ * "virtual" (default) starts a virtual thread per task, "fixed" uses
+ * server.workerThreads platform threads.
+ */
+public class OfficeDispatcher {
+
+    private static final Logger LOG = Loggers.server(OfficeDispatcher.class);
+
+    private final ExecutorService workers;
+    private final ConcurrentMap<Integer, Lane> lanes = new ConcurrentHashMap<>();
+
+    public OfficeDispatcher() {
+        this(createExecutor());
+    }
+
+    public OfficeDispatcher(ExecutorService workers) {
+        this.workers = workers;
+    }
+
+    public void dispatch(int officeId, Runnable task) {
+        Lane lane = lanes.computeIfAbsent(officeId, id -> new Lane());
+        lane.tasks.add(task);
+        lane.schedule();
+    }
+
+    // Requests received but not yet started, across all offices
+    public int getBacklog() {
+        int backlog = 0;
+        for (Lane lane : lanes.values()) {
+            backlog += lane.tasks.size();
+        }
+        return backlog;
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOG.warn("Timed out waiting for client requests to finish.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ExecutorService createExecutor() {
+        if ("fixed".equalsIgnoreCase(AppConfig.get("server.executor", "virtual"))) {
+            int threads = AppConfig.getInt("server.workerThreads", Runtime.getRuntime().availableProcessors() * 2);
+            return Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("queue-worker-", 0).daemon(true).factory());
+        }
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("queue-worker-", 0).factory());
+    }
+
+    // Pending requests of one office; at most one worker drains it at a time
+    private class Lane implements Runnable {
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    workers.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    LOG.warn("Dropping client request, the server is shutting down.");
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOG.error("Error handling client request: {}", e.getMessage());
+                }
+            }
+            scheduled.set(false);
+            // A task may have been added after the last poll but before the flag was cleared
+            if (!tasks.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package dorsu.jareth.queue;
+
+import dorsu.jareth.protocol.MessageCodec;
+import dorsu.jareth.protocol.QueueMessage;
+import dorsu.jareth.protocol.WireFormat;
+import dorsu.jareth.util.AppConfig;
+import dorsu.jareth.util.Loggers;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.apache.logging.log4j.Logger;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+/**
+ * A counter's connection to the queue server that survives server restarts
+ * and network blips. When the socket closes it reconnects with exponential
+ * backoff plus random jitter, so a room full of counters does not hammer a
+ * server that is just coming back up.
+ *
+ * Commands that change the queue get an idempotency key and wait in a small
+ * outbox until the server's reply carrying that key arrives. Commands issued
+ * while disconnected, and any whose reply was lost with the connection, are
+ * sent again in order after reconnecting; the server recognises a repeated
+ * key and does not apply it twice. When the outbox is full, new commands are
+ * refused rather than queued without limit.
+ */
+public class QueueConnection {
+
+    private static final Logger LOG = Loggers.client(QueueConnection.class);
+
+    private final URI serverUri;
+    private final WireFormat wireFormat;
+    private final Consumer<QueueMessage> handler;
+    private final long initialDelayMillis = AppConfig.getLong("client.reconnectInitialMillis", 500);
+    private final long maxDelayMillis = AppConfig.getLong("client.reconnectMaxMillis", 30000);
+    private final int outboxCapacity = AppConfig.getInt("client.outboxCapacity", 32);
+    // Unacknowledged commands by idempotency key, oldest first
+    private final Map<String, QueueMessage> outbox = new LinkedHashMap<>();
+    private final ScheduledExecutorService reconnector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "queue-client-reconnect");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile WebSocketClient client;
+    private volatile boolean closed;
+    private int failedAttempts;
+
+    public QueueConnection(URI serverUri, WireFormat wireFormat, Consumer<QueueMessage> handler) {
+        this.serverUri = serverUri;
+        this.wireFormat = wireFormat;
+        this.handler = handler;
+    }
+
+    public void connect() {
+        reconnector.execute(this::openSocket);
+    }
+
+    public boolean isOpen() {
+        WebSocketClient current = client;
+        return current != null && current.isOpen();
+    }
+
+    /**
+     * Sends a command. Reliable commands are kept, and queued while
+     * disconnected, until the server acknowledges them. Returns false when
+     * the command was dropped: the outbox is full, or an unreliable command
+     * found no open connection.
+     */
+    public boolean send(QueueMessage command, boolean reliable) {
+        if (reliable) {
+            synchronized (outbox) {
+                if (outbox.size() >= outboxCapacity) {
+                    return false;
+                }
+                String requestId = UUID.randomUUID().toString();
+                command = command.withRequestId(requestId);
+                outbox.put(requestId, command);
+            }
+        }
+        if (isOpen()) {
+            write(command);
+        } else if (!reliable) {
+            return false;
+        }
+        return true;
+    }
+
+    public int getPendingCommands() {
+        synchronized (outbox) {
+            return outbox.size();
+        }
+    }
+
+    public void close() {
+        closed = true;
+        reconnector.shutdownNow();
+        WebSocketClient current = client;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    // Only ever runs on the reconnect thread
+    private void openSocket() {
+        if (closed) {
+            return;
+        }
+        client = new WebSocketClient(serverUri) {
+            @Override
+            public void onOpen(ServerHandshake handshakedata) {
+                LOG.info("Connected to WebSocket Server");
+                reconnector.execute(() -> failedAttempts = 0);
+                resendOutbox();
+            }
+
+            @Override
+            public void onMessage(String message) {
+                try {
+                    receive(MessageCodec.decodeJson(message));
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("Ignoring malformed message from server: {}", e.getMessage());
+                }
+            }
+
+            @Override
+            public void onMessage(ByteBuffer message) {
+                try {
+                    receive(MessageCodec.decodeBinary(message));
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("Ignoring malformed message from server: {}", e.getMessage());
+                }
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+                LOG.info("Connection closed: {}", reason);
+                scheduleReconnect();
+            }
+
+            @Override
+            public void onError(Exception ex) {
+                LOG.error("WebSocket Error: {}", ex.getMessage());
+            }
+        };
+        client.connect();
+    }
+
+    // Waits somewhere between half and all of a window that doubles per failure, up to maxDelayMillis
+    private void scheduleReconnect() {
+        if (closed) {
+            return;
+        }
+        reconnector.execute(() -> {
+            long window = Math.min(maxDelayMillis, initialDelayMillis << Math.min(failedAttempts, 20));
+            failedAttempts++;
+            long delay = window / 2 + ThreadLocalRandom.current().nextLong(window / 2 + 1);
+            LOG.info("Reconnecting in {} ms...", delay);
+            reconnector.schedule(this::openSocket, delay, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private void resendOutbox() {
+        List<QueueMessage> pending;
+        synchronized (outbox) {
+            pending = new ArrayList<>(outbox.values());
+        }
+        for (QueueMessage command : pending) {
+            write(command);
+        }
+    }
+
+    private void receive(QueueMessage message) {
+        if (message.getRequestId() != null) {
+            synchronized (outbox) {
+                outbox.remove(message.getRequestId());
+            }
+        }
+        handler.accept(message);
+    }
+
+    private void write(QueueMessage command) {
+        WebSocketClient current = client;
+        try {
+            if (wireFormat == WireFormat.BINARY) {
+                current.send(MessageCodec.encodeBinary(command));
+            } else {
+                current.send(MessageCodec.encodeJson(command));
+            }
+        } catch (RuntimeException e) {
+            // The socket closed under us; a reliable command is still in the outbox and goes out on reconnect
+            LOG.warn("Could not send {}: {}", command.getType(), e.getMessage());
+        }
+    }
+}
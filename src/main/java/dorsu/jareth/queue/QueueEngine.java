@@ -0,0 +1,597 @@
+package dorsu.jareth.queue;
+
+import dorsu.jareth.metrics.Metrics;
+import dorsu.jareth.util.AppConfig;
+import dorsu.jareth.util.DatabaseConnection;
+import dorsu.jareth.util.Loggers;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Authoritative in-memory queue of pending tickets, one FIFO per office.
+ * Every queue decision is answered from memory; each change is appended to
+ * the local event log and written to MySQL in batches on a background
+ * thread by {@link TicketWriteBehind}.
+ *
+ * {@link #restore()} rebuilds the queues from the latest
+ * {@link QueueStateFile} snapshot plus the event log records written after
+ * it, without reading the tickets table, so the queues come back and keep
+ * issuing while MySQL is down for maintenance. Only when there is no usable
+ * snapshot are they loaded from the tickets table. A fresh snapshot is
+ * written every queue.snapshotIntervalMillis and on shutdown.
+ *
+ * The engine assumes it is the only process issuing tickets, which is why it
+ * can hand out row ids itself instead of waiting for AUTO_INCREMENT. Ticket
+ * numbers restart every day per office and come from
+ * {@link TicketNumberAllocator}.
+ */
+public class QueueEngine {
+
+    private static final Logger LOG = Loggers.server(QueueEngine.class);
+
+    private final ConcurrentMap<Integer, OfficeQueue> queues = new ConcurrentHashMap<>();
+    private final AtomicInteger lastTicketId = new AtomicInteger();
+    private final TicketNumberAllocator numberAllocator = new TicketNumberAllocator();
+    private final List<QueueListener> listeners = new CopyOnWriteArrayList<>();
+    private final TicketWriteBehind writeBehind = new TicketWriteBehind();
+    private final QueueStateFile stateFile = new QueueStateFile(Paths.get(AppConfig.get("queue.snapshotFile", "data/queue-state.snapshot")));
+    private final long snapshotIntervalMillis = AppConfig.getLong("queue.snapshotIntervalMillis", 60000);
+    private final long dedupWindowMillis = AppConfig.getLong("server.dedupWindowMillis", 600000);
+    private final int dedupMaxEntries = AppConfig.getInt("server.dedupMaxEntries", 10000);
+    private ScheduledExecutorService snapshotter;
+
+    public void restore() throws SQLException {
+        queues.clear();
+        numberAllocator.initialize();
+        QueueStateFile.Snapshot snapshot = stateFile.read();
+        try {
+            if (snapshot != null) {
+                restoreSnapshot(snapshot);
+            } else {
+                writeBehind.open(new TicketWriteBehind.ReplayTarget() {
+                    // The tickets table has the queues; the log is only needed for the dedup windows
+                    @Override
+                    public void replayIssued(long sequence, QueuedTicket ticket) {
+                    }
+
+                    @Override
+                    public void replayServed(long sequence, QueuedTicket ticket, LocalDateTime calledAt) {
+                    }
+
+                    @Override
+                    public void replayRemoved(long sequence, QueuedTicket ticket) {
+                    }
+
+                    @Override
+                    public void replayRequest(long sequence, RecentRequests.Applied request) {
+                        queueFor(request.getTicket().getOfficeId()).requests.add(request, System.currentTimeMillis());
+                    }
+                }, 0);
+                // Commits anything a previous run logged but never wrote, so the reads below see it
+                writeBehind.catchUp();
+                loadFromDatabase();
+            }
+        } catch (IOException e) {
+            throw new SQLException("Could not read the ticket event log: " + e.getMessage(), e);
+        }
+        seedServiceRates();
+        writeBehind.startWriter();
+        writeSnapshot();
+        snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "queue-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotter.scheduleWithFixedDelay(this::writeSnapshot, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void restoreSnapshot(QueueStateFile.Snapshot snapshot) throws IOException {
+        Map<Integer, Long> covered = new HashMap<>();
+        long usedSequence = snapshot.getLogSequence();
+        for (QueueStateFile.OfficeState office : snapshot.getOffices()) {
+            OfficeQueue queue = queueFor(office.getOfficeId());
+            queue.tickets.addAll(office.getTickets());
+            queue.lastCalled = office.getLastCalled();
+            queue.lastCalledAt = office.getLastCalledAt();
+            for (RecentRequests.Applied request : office.getRequests()) {
+                queue.requests.add(request, System.currentTimeMillis());
+            }
+            covered.put(office.getOfficeId(), office.getCoveredSequence());
+            usedSequence = Math.max(usedSequence, office.getCoveredSequence());
+        }
+        lastTicketId.set(snapshot.getLastTicketId());
+        // Highest number each office handed out today according to the log, which may be past the snapshot's
+        Map<Integer, Integer> lastIssued = new HashMap<>();
+        LocalDate today = LocalDate.now();
+        // Offices missing from the snapshot were created after it, so all of their records are newer
+        int records = writeBehind.open(new TicketWriteBehind.ReplayTarget() {
+            @Override
+            public void replayIssued(long sequence, QueuedTicket ticket) {
+                if (ticket.getCreatedAt().toLocalDate().equals(today)) {
+                    lastIssued.merge(ticket.getOfficeId(), TicketNumberAllocator.numberOf(ticket.getTicketNumber()), Math::max);
+                }
+                if (sequence > covered.getOrDefault(ticket.getOfficeId(), 0L)) {
+                    queueFor(ticket.getOfficeId()).tickets.addLast(ticket);
+                    lastTicketId.accumulateAndGet(ticket.getId(), Math::max);
+                }
+            }
+
+            @Override
+            public void replayServed(long sequence, QueuedTicket ticket, LocalDateTime calledAt) {
+                if (sequence > covered.getOrDefault(ticket.getOfficeId(), 0L)) {
+                    OfficeQueue queue = queueFor(ticket.getOfficeId());
+                    queue.tickets.removeIf(waiting -> waiting.getId() == ticket.getId());
+                    queue.serviceRate.record(queue.lastCalledAt, ticket.getCreatedAt(), calledAt);
+                    queue.lastCalled = ticket;
+                    queue.lastCalledAt = calledAt;
+                }
+            }
+
+            @Override
+            public void replayRemoved(long sequence, QueuedTicket ticket) {
+                if (sequence > covered.getOrDefault(ticket.getOfficeId(), 0L)) {
+                    queueFor(ticket.getOfficeId()).tickets.removeIf(waiting -> waiting.getId() == ticket.getId());
+                }
+            }
+
+            @Override
+            public void replayRequest(long sequence, RecentRequests.Applied request) {
+                if (sequence > covered.getOrDefault(request.getTicket().getOfficeId(), 0L)) {
+                    queueFor(request.getTicket().getOfficeId()).requests.add(request, System.currentTimeMillis());
+                }
+            }
+        }, usedSequence);
+        // Lets issuing go on from the reserved numbers without MySQL; offices without any reserve when they next issue
+        for (QueueStateFile.OfficeState office : snapshot.getOffices()) {
+            if (!office.getUnusedNumbers().isEmpty()) {
+                numberAllocator.restore(office.getOfficeId(), office.getUnusedNumbers(), lastIssued.getOrDefault(office.getOfficeId(), 0));
+            }
+        }
+        writeBehind.setSnapshotSequence(snapshot.getLogSequence());
+        LOG.info("Restored the ticket queues from the snapshot and {} logged changes.", records);
+    }
+
+    private void loadFromDatabase() throws SQLException {
+        long start = System.nanoTime();
+        try (Connection connection = DatabaseConnection.getConnection();
+             Statement stmt = connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT MAX(id) AS max_id FROM tickets")) {
+                lastTicketId.set(rs.next() ? rs.getInt("max_id") : 0);
+            }
+            // Reads only the active-tickets index, however long the served history gets
+            try (ResultSet rs = stmt.executeQuery("SELECT id, ticket_number, office_id, created_at FROM tickets WHERE pending_office_id IS NOT NULL ORDER BY id")) {
+                while (rs.next()) {
+                    Timestamp createdAt = rs.getTimestamp("created_at");
+                    QueuedTicket ticket = new QueuedTicket(rs.getInt("id"), rs.getString("ticket_number"), rs.getInt("office_id"),
+                            createdAt != null ? createdAt.toLocalDateTime() : LocalDateTime.now());
+                    queueFor(ticket.getOfficeId()).tickets.addLast(ticket);
+                }
+            }
+        } finally {
+            Metrics.database("load_queues").recordSince(start);
+        }
+    }
+
+    /**
+     * Starts each office's wait estimate from its average time between calls
+     * over the last week of ticket_daily_stats, one small grouped query.
+     * Offices whose estimate was already rebuilt from the event log keep
+     * theirs.
+     * Without MySQL the estimates simply start from the first calls.
+     */
+    private void seedServiceRates() {
+        long start = System.nanoTime();
+        try (Connection connection = DatabaseConnection.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT office_id, SUM(call_interval_seconds_sum), SUM(call_interval_count) "
+                     + "FROM ticket_daily_stats WHERE stat_date >= ? GROUP BY office_id HAVING SUM(call_interval_count) > 0")) {
+            statement.setDate(1, Date.valueOf(LocalDate.now().minusDays(7)));
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    // Deleted offices still have stats rows but no queue to estimate for
+                    if (!isKnownOffice(rs.getInt(1))) {
+                        continue;
+                    }
+                    OfficeQueue queue = queueFor(rs.getInt(1));
+                    queue.lock.lock();
+                    try {
+                        queue.serviceRate.seed(rs.getLong(2) * 1000 / rs.getLong(3));
+                    } finally {
+                        queue.lock.unlock();
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            LOG.warn("Could not load past call intervals, wait estimates start from the first calls: {}", e.getMessage());
+        } finally {
+            Metrics.database("seed_service_rates").recordSince(start);
+        }
+    }
+
+    /**
+     * Saves every office's queue with the log sequence it includes. Each
+     * office is copied under its own lock, so issuing never waits for the
+     * whole snapshot, only for its office's copy.
+     */
+    private void writeSnapshot() {
+        // Offices created while copying are not in the snapshot, but all of their records come after this
+        long logSequence = writeBehind.getLastSequence();
+        List<QueueStateFile.OfficeState> offices = new ArrayList<>();
+        for (Map.Entry<Integer, OfficeQueue> entry : queues.entrySet()) {
+            OfficeQueue queue = entry.getValue();
+            queue.lock.lock();
+            try {
+                // Numbers are handed out under the office lock, so these match the copied tickets
+                offices.add(new QueueStateFile.OfficeState(entry.getKey(), writeBehind.getLastSequence(),
+                        new ArrayList<>(queue.tickets), queue.lastCalled, queue.lastCalledAt, numberAllocator.getUnusedNumbers(entry.getKey()),
+                        queue.requests.entries(System.currentTimeMillis())));
+            } finally {
+                queue.lock.unlock();
+            }
+        }
+        try {
+            // Read last, so it is at least every id in the copies
+            stateFile.write(lastTicketId.get(), logSequence, offices);
+            writeBehind.setSnapshotSequence(logSequence);
+        } catch (IOException e) {
+            LOG.error("Error writing the queue snapshot: {}", e.getMessage());
+        }
+    }
+
+    public QueuedTicket issue(int officeId) throws SQLException {
+        return issue(officeId, null);
+    }
+
+    /**
+     * Issues a ticket for a client command. When the command's idempotency
+     * key was already applied, e.g. a retry after a lost reply or a server
+     * restart, the ticket it issued then is returned and nothing changes.
+     */
+    public QueuedTicket issue(int officeId, String requestId) throws SQLException {
+        if (!isKnownOffice(officeId)) {
+            throw new IllegalArgumentException("Unknown office: " + officeId);
+        }
+        OfficeQueue queue = queueFor(officeId);
+        QueuedTicket ticket = null;
+        while (ticket == null) {
+            // Any database round trip for a new block of numbers happens here, before the office is locked
+            numberAllocator.reserveAhead(officeId);
+            queue.lock.lock();
+            try {
+                QueuedTicket earlier = queue.requests.get(requestId, System.currentTimeMillis());
+                if (earlier != null) {
+                    return earlier;
+                }
+                // Numbered under the office lock so queue order always matches ticket numbers
+                int number = numberAllocator.next(officeId);
+                if (number == 0) {
+                    // Other tickets used up the block reserved above; reserve again outside the lock
+                    continue;
+                }
+                QueuedTicket issued = new QueuedTicket(lastTicketId.incrementAndGet(), "Ticket-" + number, officeId, LocalDateTime.now());
+                queue.tickets.addLast(issued);
+                // Logged while holding the office lock so the writer sees this insert before any later update
+                writeBehind.issued(issued, requestId);
+                remember(queue, requestId, issued);
+                long sequence = ++queue.sequence;
+                queue.events.add(listener -> listener.ticketAdded(sequence, issued));
+                ticket = issued;
+            } finally {
+                queue.lock.unlock();
+            }
+        }
+        publish(queue);
+        return ticket;
+    }
+
+    public QueuedTicket callNext(int officeId) {
+        return callNext(officeId, null);
+    }
+
+    // Like issue, a command that was already applied gets the ticket it called then
+    public QueuedTicket callNext(int officeId, String requestId) {
+        OfficeQueue queue = queues.get(officeId);
+        if (queue == null) {
+            return null;
+        }
+        QueuedTicket ticket;
+        queue.lock.lock();
+        try {
+            QueuedTicket earlier = queue.requests.get(requestId, System.currentTimeMillis());
+            if (earlier != null) {
+                return earlier;
+            }
+            ticket = queue.tickets.pollFirst();
+            if (ticket != null) {
+                LocalDateTime calledAt = LocalDateTime.now();
+                QueuedTicket previous = queue.lastCalled;
+                LocalDateTime previousCalledAt = queue.lastCalledAt;
+                queue.serviceRate.record(previousCalledAt, ticket.getCreatedAt(), calledAt);
+                queue.lastCalled = ticket;
+                queue.lastCalledAt = calledAt;
+                writeBehind.served(ticket, calledAt, previous, previousCalledAt, requestId);
+                remember(queue, requestId, ticket);
+                long sequence = ++queue.sequence;
+                QueuedTicket called = ticket;
+                queue.events.add(listener -> listener.ticketCalled(sequence, called));
+            }
+        } finally {
+            queue.lock.unlock();
+        }
+        publish(queue);
+        return ticket;
+    }
+
+    // Takes a waiting ticket out of the queue without serving it, e.g. when the client walked away
+    public QueuedTicket remove(int officeId, String ticketNumber) {
+        return remove(officeId, ticketNumber, null);
+    }
+
+    public QueuedTicket remove(int officeId, String ticketNumber, String requestId) {
+        OfficeQueue queue = queues.get(officeId);
+        if (queue == null) {
+            return null;
+        }
+        QueuedTicket removed = null;
+        queue.lock.lock();
+        try {
+            QueuedTicket earlier = queue.requests.get(requestId, System.currentTimeMillis());
+            if (earlier != null) {
+                return earlier;
+            }
+            Iterator<QueuedTicket> it = queue.tickets.iterator();
+            while (it.hasNext()) {
+                QueuedTicket ticket = it.next();
+                if (ticket.getTicketNumber().equals(ticketNumber)) {
+                    it.remove();
+                    writeBehind.removed(ticket, requestId);
+                    remember(queue, requestId, ticket);
+                    long sequence = ++queue.sequence;
+                    queue.events.add(listener -> listener.ticketRemoved(sequence, ticket));
+                    removed = ticket;
+                    break;
+                }
+            }
+        } finally {
+            queue.lock.unlock();
+        }
+        publish(queue);
+        return removed;
+    }
+
+    public QueueSnapshot getSnapshot(int officeId) {
+        OfficeQueue queue = queues.get(officeId);
+        if (queue == null) {
+            return new QueueSnapshot(officeId, 0, new ArrayList<>());
+        }
+        queue.lock.lock();
+        try {
+            return new QueueSnapshot(officeId, queue.sequence, new ArrayList<>(queue.tickets));
+        } finally {
+            queue.lock.unlock();
+        }
+    }
+
+    // Whether a command with this idempotency key has already changed the office's queue
+    public boolean isApplied(int officeId, String requestId) {
+        OfficeQueue queue = queues.get(officeId);
+        if (queue == null || requestId == null) {
+            return false;
+        }
+        queue.lock.lock();
+        try {
+            return queue.requests.get(requestId, System.currentTimeMillis()) != null;
+        } finally {
+            queue.lock.unlock();
+        }
+    }
+
+    /**
+     * Whether tickets can be issued for the office. That is decided by the
+     * offices table; until it has been read once, e.g. MySQL was down at
+     * startup, the offices restored with the queues are accepted instead.
+     */
+    public boolean isKnownOffice(int officeId) {
+        if (OfficeCache.isLoaded()) {
+            return OfficeCache.get(officeId) != null;
+        }
+        return hasQueue(officeId);
+    }
+
+    // Whether the office has had tickets in this run or the ones restored, without locking it
+    public boolean hasQueue(int officeId) {
+        return queues.containsKey(officeId);
+    }
+
+    public void addListener(QueueListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(QueueListener listener) {
+        listeners.remove(listener);
+    }
+
+    public List<QueuedTicket> getPendingTickets(int officeId) {
+        OfficeQueue queue = queues.get(officeId);
+        if (queue == null) {
+            return new ArrayList<>();
+        }
+        queue.lock.lock();
+        try {
+            return new ArrayList<>(queue.tickets);
+        } finally {
+            queue.lock.unlock();
+        }
+    }
+
+    // Every waiting ticket, office by office; each office's list is a consistent snapshot
+    public List<QueuedTicket> getAllPendingTickets() {
+        List<QueuedTicket> pending = new ArrayList<>();
+        for (OfficeQueue queue : queues.values()) {
+            queue.lock.lock();
+            try {
+                pending.addAll(queue.tickets);
+            } finally {
+                queue.lock.unlock();
+            }
+        }
+        return pending;
+    }
+
+    public int getQueueLength(int officeId) {
+        OfficeQueue queue = queues.get(officeId);
+        if (queue == null) {
+            return 0;
+        }
+        queue.lock.lock();
+        try {
+            return queue.tickets.size();
+        } finally {
+            queue.lock.unlock();
+        }
+    }
+
+    // Waiting tickets per office, for the queue length gauge
+    public Map<String, Integer> getQueueLengths() {
+        Map<String, Integer> lengths = new HashMap<>();
+        for (Map.Entry<Integer, OfficeQueue> entry : queues.entrySet()) {
+            OfficeQueue queue = entry.getValue();
+            queue.lock.lock();
+            try {
+                lengths.put(entry.getKey().toString(), queue.tickets.size());
+            } finally {
+                queue.lock.unlock();
+            }
+        }
+        return lengths;
+    }
+
+    // How long the first waiting ticket of each office has waited so far, 0 for an empty queue
+    public Map<String, Long> getOldestWaitSeconds() {
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, Long> waits = new HashMap<>();
+        for (Map.Entry<Integer, OfficeQueue> entry : queues.entrySet()) {
+            OfficeQueue queue = entry.getValue();
+            QueuedTicket first;
+            queue.lock.lock();
+            try {
+                first = queue.tickets.peekFirst();
+            } finally {
+                queue.lock.unlock();
+            }
+            waits.put(entry.getKey().toString(), first != null ? Math.max(0, Duration.between(first.getCreatedAt(), now).getSeconds()) : 0);
+        }
+        return waits;
+    }
+
+    // Current average time between the office's calls, 0 when there is no estimate yet
+    public long getEstimatedServiceMillis(int officeId) {
+        OfficeQueue queue = queues.get(officeId);
+        return queue != null ? queue.serviceRate.getMeanMillis() : 0;
+    }
+
+    public Map<String, Double> getEstimatedServiceSeconds() {
+        Map<String, Double> estimates = new HashMap<>();
+        for (Map.Entry<Integer, OfficeQueue> entry : queues.entrySet()) {
+            estimates.put(entry.getKey().toString(), entry.getValue().serviceRate.getMeanMillis() / 1000.0);
+        }
+        return estimates;
+    }
+
+    // Changes made in memory that are not in MySQL yet
+    public int getUnwrittenChanges() {
+        return writeBehind.getPendingCount();
+    }
+
+    public void shutdown() throws InterruptedException {
+        if (snapshotter != null) {
+            snapshotter.shutdown();
+            snapshotter.awaitTermination(10, TimeUnit.SECONDS);
+            snapshotter = null;
+            writeSnapshot();
+        }
+        writeBehind.shutdown();
+    }
+
+    private OfficeQueue queueFor(int officeId) {
+        return queues.computeIfAbsent(officeId, id -> new OfficeQueue(new RecentRequests(dedupWindowMillis, dedupMaxEntries)));
+    }
+
+    // Called under the office lock, right after the change was logged with the same key
+    private static void remember(OfficeQueue queue, String requestId, QueuedTicket ticket) {
+        if (requestId != null) {
+            long now = System.currentTimeMillis();
+            queue.requests.add(new RecentRequests.Applied(requestId, ticket, now), now);
+        }
+    }
+
+    /**
+     * Hands the office's changes to the listeners after its lock has been
+     * released, in sequence order. Whoever finds nobody else publishing
+     * drains the events, including ones added meanwhile by other threads.
+     */
+    private void publish(OfficeQueue queue) {
+        while (!queue.events.isEmpty() && queue.publishing.compareAndSet(false, true)) {
+            try {
+                Consumer<QueueListener> event;
+                while ((event = queue.events.poll()) != null) {
+                    for (QueueListener listener : listeners) {
+                        event.accept(listener);
+                    }
+                }
+            } finally {
+                queue.publishing.set(false);
+            }
+        }
+    }
+
+    private static class OfficeQueue {
+
+        // A j.u.c lock and not a monitor, so virtual threads waiting for it do not pin their carrier
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Deque<QueuedTicket> tickets = new ArrayDeque<>();
+        // Changes made under the lock and not yet handed to the listeners
+        private final Queue<Consumer<QueueListener>> events = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean publishing = new AtomicBoolean();
+        private long sequence;
+        // Most recent call at this office by any counter, where the interval to the next call starts
+        private QueuedTicket lastCalled;
+        private LocalDateTime lastCalledAt;
+        private final ServiceRateEstimator serviceRate = new ServiceRateEstimator();
+        // Idempotency keys of the commands applied here lately
+        private final RecentRequests requests;
+
+        OfficeQueue(RecentRequests requests) {
+            this.requests = requests;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package dorsu.jareth.queue;
+
+/**
+ * Receives every change made to an office queue. Sequence numbers are per
+ * office and increase by exactly one per event, so a listener that sees a gap
+ * knows it missed something and should ask for a snapshot. Callbacks run
+ * after the office is unlocked, one at a time per office and in sequence
+ * order, on the thread that made or is publishing the change, so they
+ * should not block.
+ */
+public interface QueueListener {
+
+    void ticketAdded(long sequence, QueuedTicket ticket);
+
+    void ticketCalled(long sequence, QueuedTicket ticket);
+
+    void ticketRemoved(long sequence, QueuedTicket ticket);
+}
@@ -1,15 +1,17 @@
 package dorsu.jareth.queue;
 
 import dorsu.jareth.auth.Authentication;
+import dorsu.jareth.protocol.MessageType;
+import dorsu.jareth.protocol.QueueMessage;
+import dorsu.jareth.protocol.WireFormat;
+import dorsu.jareth.util.AppConfig;
+import dorsu.jareth.util.Loggers;
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.sql.*;
-import java.util.Properties;
+import java.util.ArrayList;
+import java.util.List;
 import javafx.application.Application;
-import javafx.application.Platform;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
@@ -17,7 +19,7 @@ import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.Label;
-import javafx.scene.control.TextArea;
+import javafx.scene.control.ListView;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.AnchorPane;
@@ -30,12 +32,13 @@ import javafx.scene.text.Font;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javafx.util.Duration;
-import org.java_websocket.client.WebSocketClient;
-import org.java_websocket.handshake.ServerHandshake;
+import org.apache.logging.log4j.Logger;
 
 public class QueueManagementApp extends Application {
 
-    private TextArea queueStatusArea;
+    private static final Logger LOG = Loggers.ui(QueueManagementApp.class);
+
+    private ListView<String> queueStatusView;
     private Button issueTicketButton;
     private Button callNextTicketButton;
     private Button refreshQueueStatusButton;
@@ -44,17 +47,33 @@ public class QueueManagementApp extends Application {
 
     private Stage dashboardStage;
 
-    private WebSocketClient webSocketClient;
+    private QueueConnection connection;
+    private final WireFormat wireFormat = WireFormat.fromParameter(AppConfig.get("client.format", "json"));
 
     private Label currentlyServingLabel;
     private Label nextInQueueLabel;
     private Label totalQueueLabel;
+    private Label estimatedWaitLabel;
     private Stage infoStage;
     private MediaPlayer mediaPlayer;
 
     private final int officeID;
     private String officeName;
 
+    // Local copy of this office's queue, kept current from server events
+    private final List<String> queuedTickets = new ArrayList<>();
+    private long lastSequence = -1;
+    // Server run the sequence numbers belong to; a restarted server starts counting again
+    private long serverEpoch;
+    private String currentlyServing;
+    // The office's average time between calls from the latest event; each position waits that many times over
+    private long serviceMillis;
+
+    // Server messages are applied once per pulse; log lines collect here until the next pulse
+    private final ClientUpdateCoalescer updates = new ClientUpdateCoalescer(this::handleServerMessage, this::flushUpdates);
+    private final RingBufferLog statusLog = new RingBufferLog(AppConfig.getInt("client.logCapacity", 500));
+    private final List<String> pendingLogLines = new ArrayList<>();
+
     // Constructor to receive the office ID
     public QueueManagementApp(int officeID) {
         this.officeID = officeID;
@@ -72,6 +91,14 @@ public class QueueManagementApp extends Application {
         currentlyServingLabel = new Label();
         nextInQueueLabel = new Label();
         totalQueueLabel = new Label();
+        estimatedWaitLabel = new Label();
+        updates.start();
+        primaryStage.setOnHidden(event -> {
+            updates.stop();
+            if (connection != null) {
+                connection.close();
+            }
+        });
     }
 
     public Scene createDashboardScene(Stage primaryStage) {
@@ -79,12 +106,11 @@ public class QueueManagementApp extends Application {
         root.setPrefSize(788, 543);
         root.setStyle("-fx-background-color: #404040;");
 
-        queueStatusArea = new TextArea();
-        queueStatusArea.setStyle("-fx-background-color: #555; -fx-text-fill: black;");
-        queueStatusArea.setEditable(false);
-        queueStatusArea.setLayoutX(232);
-        queueStatusArea.setLayoutY(14);
-        queueStatusArea.setPrefSize(542, 436);
+        queueStatusView = new ListView<>(statusLog);
+        queueStatusView.setStyle("-fx-background-color: #555; -fx-text-fill: black;");
+        queueStatusView.setLayoutX(232);
+        queueStatusView.setLayoutY(14);
+        queueStatusView.setPrefSize(542, 436);
 
         issueTicketButton = new Button("Issue New Ticket");
         issueTicketButton.setLayoutX(232);
@@ -123,7 +149,7 @@ public class QueueManagementApp extends Application {
         infoWindowButton.setStyle("-fx-background-color: #555; -fx-text-fill: white;");
 
         root.getChildren().addAll(
-                queueStatusArea,
+                queueStatusView,
                 issueTicketButton,
                 callNextTicketButton,
                 refreshQueueStatusButton,
@@ -138,67 +164,55 @@ public class QueueManagementApp extends Application {
         String serverIp = getServerIpAddress(); // Get the server's LAN IP address
         if (serverIp == null) {
             // Handle the case where the server IP cannot be determined
-            System.err.println("Could not determine server IP address. Exiting.");
+            LOG.warn("Could not determine server IP address. Exiting.");
             return; // Or throw an exception
         }
         int port = 8080; // Port number your server is listening on
-        URI serverUri = new URI("ws://" + serverIp + ":" + port);
-
-        webSocketClient = new WebSocketClient(serverUri) {
-            @Override
-            public void onOpen(ServerHandshake handshakedata) {
-                System.out.println("Connected to WebSocket Server");
-                sendWebSocketMessage("queuestatus");
-            }
-
-            @Override
-            public void onMessage(String message) {
-                Platform.runLater(() -> {
-                    queueStatusArea.appendText(message + "\n");
-                    if (nextInQueueLabel != null && totalQueueLabel != null && currentlyServingLabel != null) {
-                        updateInfoWindow(message);
-                    }
-                });
-            }
-
-            @Override
-            public void onClose(int code, String reason, boolean remote) {
-                System.out.println("Connection closed: " + reason);
-            }
-
-            @Override
-            public void onError(Exception ex) {
-                System.err.println("WebSocket Error: " + ex.getMessage());
-            }
-        };
+        // Subscribe to this office only, so the server does not send us other offices' events
+        URI serverUri = new URI("ws://" + serverIp + ":" + port + "/?offices=" + officeID
+                + (wireFormat == WireFormat.BINARY ? "&format=binary" : ""));
 
-        webSocketClient.connect();
+        // Reconnects on its own; every (re)connection starts with a WELCOME, which triggers the resync
+        connection = new QueueConnection(serverUri, wireFormat, updates::submit);
+        connection.connect();
     }
 
     // Function to get the server's IP address (you'll likely need to modify this)
     private String getServerIpAddress() {
-        Properties properties = new Properties();
-        try (InputStream input = getClass().getClassLoader().getResourceAsStream("config.properties")) {
-            properties.load(input);
-            return properties.getProperty("serverIp");
-        } catch (IOException e) {
-            System.err.println("Error loading configuration file: " + e.getMessage());
-            return null;
+        return AppConfig.get("serverIp", null);
+    }
+
+    // Queue-changing commands are kept and retried across reconnects until the server acknowledges them
+    private void sendWebSocketMessage(MessageType type) {
+        if (connection == null) {
+            LOG.warn("WebSocket is not connected.");
+            return;
+        }
+        if (!connection.send(QueueMessage.command(type, officeID), true)) {
+            log("Too many commands waiting for the server; " + type + " was not sent.");
+        } else if (!connection.isOpen()) {
+            log("Not connected; " + type + " will be sent when the connection is back.");
         }
     }
 
-    private void sendWebSocketMessage(String message) {
-        if (webSocketClient != null && webSocketClient.isOpen()) {
-            webSocketClient.send(officeID + ":" + message);
-        } else {
-            System.err.println("WebSocket is not connected.");
+    // Asks for the events missed since lastSequence, or the whole queue when there is no usable sequence
+    private void requestResync() {
+        if (connection == null) {
+            return;
+        }
+        QueueMessage request = QueueMessage.command(MessageType.SNAPSHOT_REQUEST, officeID);
+        if (lastSequence >= 0) {
+            request.withSequence(lastSequence).withEpoch(serverEpoch);
+        }
+        if (!connection.send(request, false)) {
+            LOG.warn("WebSocket is not connected.");
         }
     }
 
     private void createInfoWindow() {
         File defaultVideoFile = new File("ad/QueueManagementSystem.mp4");
         if (!defaultVideoFile.exists()) {
-            System.err.println("Error: Video file not found at: " + defaultVideoFile.getAbsolutePath());
+            LOG.error("Error: Video file not found at: {}", defaultVideoFile.getAbsolutePath());
             return;
         }
 
@@ -237,6 +251,13 @@ public class QueueManagementApp extends Application {
         AnchorPane.setLeftAnchor(totalQueueLabel, 20.0);
         containerForTheInfo.getChildren().add(totalQueueLabel);
 
+        estimatedWaitLabel.setText("Estimated Wait: not yet known");
+        estimatedWaitLabel.setStyle("-fx-text-fill: white;");
+        estimatedWaitLabel.setFont(new Font(28));
+        AnchorPane.setTopAnchor(estimatedWaitLabel, 478.0);
+        AnchorPane.setLeftAnchor(estimatedWaitLabel, 20.0);
+        containerForTheInfo.getChildren().add(estimatedWaitLabel);
+
         Button selectFileButton = new Button("Select File");
         selectFileButton.setStyle("-fx-background-color: #555; -fx-text-fill: white;");
         AnchorPane.setBottomAnchor(selectFileButton, 12.0);
@@ -289,7 +310,7 @@ public class QueueManagementApp extends Application {
                     mediaPlayer.setAutoPlay(true);
                     mediaPlayer.setCycleCount(MediaPlayer.INDEFINITE);
                 } catch (Exception ex) {
-                    System.err.println("Error creating media from selected file: " + ex.getMessage());
+                    LOG.error("Error creating media from selected file: {}", ex.getMessage());
                 }
             }
         });
@@ -301,37 +322,136 @@ public class QueueManagementApp extends Application {
         });
         Scene infoScene = new Scene(infoPane);
         infoPane.getChildren().addAll(containerForTheInfo, containerForTheMedia);
+        updateInfoWindow();
         infoStage.setScene(infoScene);
         infoStage.show();
     }
 
-    private void updateInfoWindow(String message) {
-        if (message.startsWith("Serving:")) {
-            currentlyServingLabel.setText("Currently Serving: " + message.substring("Serving: ".length()) + " (" + officeName + ")");
-        } else if (message.startsWith("Queue Status:")) {
-            String queueStatus = message.substring("Queue Status: ".length()).trim();
-            if (queueStatus.equals("The queue is empty for this office.")) {
-                nextInQueueLabel.setText("Next in Queue: None (" + officeName + ")");
-                totalQueueLabel.setText("Total Tickets in Queue: 0 (" + officeName + ")");
-            } else {
-                String[] queueParts = queueStatus.split(", ");
-                String nextTicket = queueParts.length > 0 ? queueParts[0] : "None";
-                nextInQueueLabel.setText("Next in Queue: " + nextTicket + " (" + officeName + ")");
-                totalQueueLabel.setText("Total Tickets in Queue: " + queueParts.length + " (" + officeName + ")");
-            }
+    private void handleServerMessage(QueueMessage message) {
+        switch (message.getType()) {
+            case TICKET_ADDED:
+            case TICKET_CALLED:
+            case TICKET_REMOVED:
+                applyEvent(message);
+                break;
+            case SNAPSHOT:
+                applySnapshot(message);
+                break;
+            case WELCOME:
+                if (message.getEpoch() != serverEpoch) {
+                    // A different server run: our sequence numbers mean nothing to it
+                    serverEpoch = message.getEpoch();
+                    lastSequence = -1;
+                }
+                log(message.getText());
+                requestResync();
+                break;
+            case TICKET_ISSUED:
+                log("New ticket issued: " + message.getTicketNumber() + " for " + message.getOfficeName());
+                break;
+            case TICKET_PRINTED:
+                log("Ticket generated: " + message.getText());
+                break;
+            case NOW_SERVING:
+                log("Serving: " + message.getTicketNumber() + " at " + message.getOfficeName());
+                break;
+            case TICKET_CANCELLED:
+                log("Removed: " + message.getTicketNumber());
+                break;
+            default:
+                log(message.getText());
+        }
+    }
+
+    private void log(String line) {
+        pendingLogLines.add(line);
+        // Lines logged outside a server message, e.g. while disconnected, would otherwise wait for the next one
+        updates.requestFlush();
+    }
+
+    // Runs once per pulse after that pulse's messages have been applied
+    private void flushUpdates() {
+        if (!pendingLogLines.isEmpty()) {
+            statusLog.appendAll(pendingLogLines);
+            pendingLogLines.clear();
+            queueStatusView.scrollTo(statusLog.size() - 1);
+        }
+        updateInfoWindow();
+    }
+
+    private void applyEvent(QueueMessage event) {
+        if (event.getOfficeId() != officeID || lastSequence < 0) {
+            return;
+        }
+        long sequence = event.getSequence();
+        if (sequence <= lastSequence) {
+            return;
+        }
+        if (sequence != lastSequence + 1) {
+            // Missed at least one event; start over from a fresh snapshot
+            lastSequence = -1;
+            requestResync();
+            return;
+        }
+        lastSequence = sequence;
+        serviceMillis = event.getServiceMillis();
+        String ticketNumber = event.getTicketNumber();
+        switch (event.getType()) {
+            case TICKET_ADDED:
+                queuedTickets.add(ticketNumber);
+                long waitMillis = event.getEstimatedWaitMillis(queuedTickets.size());
+                log(ticketNumber + " joined the queue" + (waitMillis > 0 ? ", estimated wait " + formatWait(waitMillis) : ""));
+                break;
+            case TICKET_CALLED:
+                queuedTickets.remove(ticketNumber);
+                currentlyServing = ticketNumber;
+                log("Now serving " + ticketNumber);
+                break;
+            default:
+                queuedTickets.remove(ticketNumber);
+                log(ticketNumber + " left the queue");
         }
     }
 
+    private void applySnapshot(QueueMessage snapshot) {
+        if (snapshot.getOfficeId() != officeID) {
+            return;
+        }
+        lastSequence = snapshot.getSequence();
+        serverEpoch = snapshot.getEpoch();
+        serviceMillis = snapshot.getServiceMillis();
+        queuedTickets.clear();
+        queuedTickets.addAll(snapshot.getTickets());
+        log("Queue Status: " + (queuedTickets.isEmpty() ? "The queue is empty for this office." : String.join(", ", queuedTickets)));
+    }
+
+    private void updateInfoWindow() {
+        if (nextInQueueLabel == null || totalQueueLabel == null || currentlyServingLabel == null || estimatedWaitLabel == null) {
+            return;
+        }
+        currentlyServingLabel.setText("Currently Serving: " + (currentlyServing != null ? currentlyServing : "None") + " (" + officeName + ")");
+        nextInQueueLabel.setText("Next in Queue: " + (queuedTickets.isEmpty() ? "None" : queuedTickets.get(0)) + " (" + officeName + ")");
+        totalQueueLabel.setText("Total Tickets in Queue: " + queuedTickets.size() + " (" + officeName + ")");
+        // What someone taking a ticket now can expect: everyone already waiting, then them
+        estimatedWaitLabel.setText("Estimated Wait: " + (serviceMillis > 0 ? formatWait(serviceMillis * (queuedTickets.size() + 1)) : "not yet known"));
+    }
+
+    private static String formatWait(long millis) {
+        long minutes = (millis + 59_999) / 60_000;
+        return minutes <= 1 ? "about 1 minute" : "about " + minutes + " minutes";
+    }
+
     private void issueNewTicket() {
-        sendWebSocketMessage("newticket");
+        sendWebSocketMessage(MessageType.NEW_TICKET);
     }
 
     private void callNextTicket() {
-        sendWebSocketMessage("nextticket");
+        sendWebSocketMessage(MessageType.NEXT_TICKET);
     }
 
     private void refreshQueueStatus() {
-        sendWebSocketMessage("queuestatus");
+        lastSequence = -1;
+        requestResync();
     }
 
     private void logout() throws InterruptedException {
@@ -350,9 +470,9 @@ public class QueueManagementApp extends Application {
             app.start(primaryStage);
             primaryStage.show();
             this.dashboardStage.close();
-            System.out.println("Logging out...");
+            LOG.info("Logging out...");
         } else {
-            System.out.println("Logout cancelled.");
+            LOG.info("Logout cancelled.");
         }
     }
 
@@ -368,23 +488,13 @@ public class QueueManagementApp extends Application {
         alert.showAndWait();
     }
 
-    // Method to fetch the office name from the database
+    // Office names come from the shared cache rather than a query per window
     private String fetchOfficeName(int officeID) {
-        try (Connection connection = DriverManager.getConnection("jdbc:mysql://localhost:3306/queue_management", "root", "")) {
-            String sql = "SELECT name FROM offices WHERE id = ?";
-            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                stmt.setInt(1, officeID);
-                try (ResultSet rs = stmt.executeQuery()) {
-                    if (rs.next()) {
-                        officeName = rs.getString("name");
-                    }
-                }
-            }
-        } catch (SQLException e) {
-            System.err.println("Error fetching office name: " + e.getMessage());
+        String name = OfficeCache.getName(officeID);
+        if (name == null) {
             showAlert("Database Error", "Could not fetch office name from database.", AlertType.ERROR);
         }
-        return officeName;
+        return name;
     }
 
     public static void main(String[] args) {
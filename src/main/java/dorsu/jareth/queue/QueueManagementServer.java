@@ -1,269 +1,454 @@
 package dorsu.jareth.queue;
 
+import dorsu.jareth.metrics.Metrics;
+import dorsu.jareth.metrics.MetricsHttpServer;
+import dorsu.jareth.metrics.Timer;
+import dorsu.jareth.protocol.MessageCodec;
+import dorsu.jareth.protocol.MessageType;
+import dorsu.jareth.protocol.QueueMessage;
+import dorsu.jareth.protocol.WireFormat;
+import dorsu.jareth.util.AppConfig;
 import dorsu.jareth.util.DatabaseConnection;
-import java.io.FileWriter;
-import java.io.IOException;
+import dorsu.jareth.util.Loggers;
 import java.net.InetAddress;
+import org.apache.logging.log4j.Logger;
 import org.java_websocket.server.WebSocketServer;
 import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
 import org.java_websocket.handshake.ClientHandshake;
 import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.ByteBuffer;
 import java.sql.*;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 
 public class QueueManagementServer extends WebSocketServer {
 
+    private static final Logger LOG = Loggers.server(QueueManagementServer.class);
+
+    private static final Timer BROADCAST_TIMER = Metrics.timer("queue_broadcast_seconds", "Time to encode an event and hand it to every subscriber.");
+    private static final LongAdder BROADCAST_RECIPIENTS = Metrics.counter("queue_broadcast_recipients_total", "Event frames handed to subscribers.");
+    // Dispatcher lane of commands whose office is not in the office cache yet
+    private static final int UNVERIFIED_LANE = -1;
+
+    private final QueueEngine queueEngine = new QueueEngine();
+    // Database and file work runs here so a slow request never blocks the socket threads
+    private final OfficeDispatcher dispatcher;
+    private final TicketPrinter ticketPrinter = new TicketPrinter();
+    // Connections that asked for specific offices, and those that want every office (no offices parameter)
+    private final ConcurrentMap<Integer, Subscribers> officeSubscribers = new ConcurrentHashMap<>();
+    private final Subscribers allOfficeSubscribers = new Subscribers();
+    // Sequences restart with every server run, so clients compare this before resuming from their last one
+    private final long epoch = System.currentTimeMillis();
+    // Each office's latest events, replayed to a reconnecting client instead of a full snapshot
+    private final ConcurrentMap<Integer, EventHistory> eventHistories = new ConcurrentHashMap<>();
+    private final int eventHistorySize = AppConfig.getInt("server.replayEvents", 256);
+    private final MetricsHttpServer metricsServer = new MetricsHttpServer();
+    // Set first when stopping, so no new command is taken while the queued ones are answered
+    private volatile boolean stopping;
+
     public QueueManagementServer(InetSocketAddress address) {
+        this(address, new OfficeDispatcher());
+    }
+
+    // For benchmarks, which run commands on the calling thread
+    QueueManagementServer(InetSocketAddress address, OfficeDispatcher dispatcher) {
         super(address);
+        this.dispatcher = dispatcher;
+        // A reply often follows an event on the same connection; without this it waits for the client's delayed ACK
+        setTcpNoDelay(true);
+        queueEngine.addListener(new QueueListener() {
+            @Override
+            public void ticketAdded(long sequence, QueuedTicket ticket) {
+                publish(ticket.getOfficeId(), recordEvent(MessageType.TICKET_ADDED, sequence, ticket));
+            }
+
+            @Override
+            public void ticketCalled(long sequence, QueuedTicket ticket) {
+                publish(ticket.getOfficeId(), recordEvent(MessageType.TICKET_CALLED, sequence, ticket));
+            }
+
+            @Override
+            public void ticketRemoved(long sequence, QueuedTicket ticket) {
+                publish(ticket.getOfficeId(), recordEvent(MessageType.TICKET_REMOVED, sequence, ticket));
+            }
+        });
+        registerMetrics();
+    }
+
+    // Gauges are read only when the metrics are collected; a newer server replaces these
+    private void registerMetrics() {
+        Metrics.gauge("queue_connected_clients", "Open WebSocket connections.", () -> getConnections().size());
+        Metrics.gauge("queue_send_buffer_frames", "Frames queued for sending on all connections.", () -> sendBufferDepth(false));
+        Metrics.gauge("queue_send_buffer_max_frames", "Frames queued for sending on the most backed-up connection.", () -> sendBufferDepth(true));
+        Metrics.gauge("queue_dispatcher_backlog", "Client requests waiting for a worker.", dispatcher::getBacklog);
+        Metrics.gauge("queue_printer_backlog", "Tickets waiting to be written to a file.", ticketPrinter::getBacklog);
+        Metrics.gauge("queue_db_unwritten_changes", "Ticket changes not yet written to MySQL.", queueEngine::getUnwrittenChanges);
+        Metrics.gauges("queue_waiting_tickets", "Tickets waiting per office.", "office", queueEngine::getQueueLengths);
+        Metrics.gauges("queue_oldest_wait_seconds", "How long the first waiting ticket of each office has waited.", "office", queueEngine::getOldestWaitSeconds);
+        Metrics.gauges("queue_estimated_service_seconds", "Estimated time between calls at each office, used for wait estimates.", "office", queueEngine::getEstimatedServiceSeconds);
+    }
+
+    private int sendBufferDepth(boolean max) {
+        int total = 0;
+        int largest = 0;
+        for (WebSocket conn : getConnections()) {
+            if (conn instanceof WebSocketImpl) {
+                int queued = ((WebSocketImpl) conn).outQueue.size();
+                total += queued;
+                largest = Math.max(largest, queued);
+            }
+        }
+        return max ? largest : total;
+    }
+
+    // For an embedded server, e.g. MainDashboard following ticket events without polling the database
+    public QueueEngine getQueueEngine() {
+        return queueEngine;
+    }
+
+    @Override
+    public void start() {
+        try {
+            DatabaseConnection.migrateSchema();
+            OfficeCache.reload();
+        } catch (SQLException e) {
+            // The queues restore from their snapshot without MySQL; office names load once it is back
+            LOG.warn("Could not migrate the database or load offices, continuing without them: {}", e.getMessage());
+        }
+        try {
+            queueEngine.restore();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not load the ticket queues: " + e.getMessage(), e);
+        }
+        metricsServer.start();
+        super.start();
+    }
+
+    /**
+     * Stops taking commands, lets the ones already queued finish and answer
+     * their clients, and only then closes the connections. A command that
+     * was applied but never answered would be retried by its client.
+     */
+    @Override
+    public void stop(int timeout, String closeMessage) throws InterruptedException {
+        stopping = true;
+        dispatcher.shutdown();
+        super.stop(timeout, closeMessage);
+        metricsServer.stop();
+        ticketPrinter.shutdown();
+        queueEngine.shutdown();
     }
 
     @Override
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
-        System.out.println("New connection from: " + conn.getRemoteSocketAddress());
-        conn.send("Connected to Queue Management System.");
-        sendQueueStatus(conn, 0);
+        LOG.info("New connection from: {}", conn.getRemoteSocketAddress());
+        ClientSession session = ClientSession.fromResourceDescriptor(handshake.getResourceDescriptor());
+        conn.setAttachment(session);
+        if (session.getOffices().isEmpty()) {
+            allOfficeSubscribers.add(conn, session.getFormat());
+        } else {
+            for (Integer officeId : session.getOffices()) {
+                officeSubscribers.computeIfAbsent(officeId, id -> new Subscribers()).add(conn, session.getFormat());
+            }
+        }
+        send(conn, new QueueMessage(MessageType.WELCOME).withText("Connected to Queue Management System.").withEpoch(epoch));
     }
 
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-        System.out.println("Connection closed: " + conn.getRemoteSocketAddress() + " - Reason: " + reason);
+        LOG.info("Connection closed: {} - Reason: {}", conn.getRemoteSocketAddress(), reason);
+        allOfficeSubscribers.remove(conn);
+        ClientSession session = conn.getAttachment();
+        if (session != null) {
+            for (Integer officeId : session.getOffices()) {
+                Subscribers subscribers = officeSubscribers.get(officeId);
+                if (subscribers != null) {
+                    subscribers.remove(conn);
+                }
+            }
+        }
     }
 
     @Override
     public void onMessage(WebSocket conn, String message) {
-        System.out.println("Message from client (" + conn.getRemoteSocketAddress() + "): " + message);
-        String[] parts = message.split(":");
-        if (parts.length >= 2) {
-            try {
-                int officeId = Integer.parseInt(parts[0]);
-                String command = parts[1].toLowerCase();
-
-                switch (command) {
-                    case "newticket":
-                        issueNewTicket(conn, officeId);
-                        break;
-                    case "nextticket":
-                        callNextTicket(conn, officeId);
-                        break;
-                    case "queuestatus":
-                        sendQueueStatus(conn, officeId);
-                        break;
-                    default:
-                        conn.send("Unknown command: " + message);
-                }
-            } catch (NumberFormatException e) {
-                conn.send("Invalid office ID in message.");
-            } catch (IOException e) {
-                conn.send("Error processing request: " + e.getMessage());
+        long receivedAt = System.nanoTime();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Message from client ({}): {}", conn.getRemoteSocketAddress(), message);
+        }
+        if (rejectWhileStopping(conn)) {
+            return;
+        }
+        QueueMessage command;
+        try {
+            command = MessageCodec.decodeJson(message);
+        } catch (IllegalArgumentException e) {
+            send(conn, errorMessage("Invalid message format: " + e.getMessage()));
+            return;
+        }
+        dispatcher.dispatch(laneFor(command.getOfficeId()), () -> handleCommand(conn, command, receivedAt));
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        long receivedAt = System.nanoTime();
+        if (rejectWhileStopping(conn)) {
+            return;
+        }
+        QueueMessage command;
+        try {
+            command = MessageCodec.decodeBinary(message);
+        } catch (IllegalArgumentException e) {
+            send(conn, errorMessage("Invalid message format: " + e.getMessage()));
+            return;
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Message from client ({}): {}", conn.getRemoteSocketAddress(), command);
+        }
+        dispatcher.dispatch(laneFor(command.getOfficeId()), () -> handleCommand(conn, command, receivedAt));
+    }
+
+    // Not applied, so the client's retry after the restart is its first attempt
+    private boolean rejectWhileStopping(WebSocket conn) {
+        if (stopping) {
+            send(conn, errorMessage("The server is shutting down; the request will be retried."));
+        }
+        return stopping;
+    }
+
+    // Offices not known yet share one lane until checked, so made-up ids cannot create lanes.
+    // A retry may then run beside its original on another lane; the engine still applies it only once.
+    private int laneFor(int officeId) {
+        return OfficeCache.contains(officeId) || queueEngine.hasQueue(officeId) ? officeId : UNVERIFIED_LANE;
+    }
+
+    // Timed from when the frame was read, so waiting behind other requests of the office counts too
+    private void handleCommand(WebSocket conn, QueueMessage command, long receivedAt) {
+        try {
+            if (!queueEngine.isKnownOffice(command.getOfficeId())) {
+                reply(conn, command, errorMessage("Unknown office: " + command.getOfficeId()));
+                return;
             }
-        } else {
-            conn.send("Invalid message format.");
+            switch (command.getType()) {
+                case NEW_TICKET:
+                    issueNewTicket(conn, command);
+                    break;
+                case NEXT_TICKET:
+                    callNextTicket(conn, command);
+                    break;
+                case SNAPSHOT_REQUEST:
+                    resync(conn, command);
+                    break;
+                case CANCEL_TICKET:
+                    cancelTicket(conn, command);
+                    break;
+                default:
+                    reply(conn, command, errorMessage("Unknown command: " + command.getType()));
+            }
+        } finally {
+            Metrics.timer("queue_command_seconds", "Time from receiving a command to sending its reply.", "command",
+                    command.getType().name()).recordSince(receivedAt);
         }
     }
 
     @Override
     public void onError(WebSocket conn, Exception ex) {
-        System.err.println("Error occurred with client: "
-                + (conn != null ? conn.getRemoteSocketAddress() : "unknown")
-                + " - " + ex.getMessage());
+        LOG.error("Error occurred with client: {} - {}", conn != null ? conn.getRemoteSocketAddress() : "unknown", ex.getMessage());
     }
 
     @Override
     public void onStart() {
-        System.out.println("Queue Management WebSocket server started!");
+        LOG.info("Queue Management WebSocket server started!");
     }
 
-    private void generateTicketText(String ticketNumber, int officeId) throws IOException {
-        Path ticketsDirectory = Paths.get("tickets");
-        Files.createDirectories(ticketsDirectory);
-        String filePath = ticketsDirectory.resolve("ticket_" + ticketNumber.substring(7) + ".txt").toString();
+    private void issueNewTicket(WebSocket conn, QueueMessage command) {
+        int officeId = command.getOfficeId();
+        // A retry gets the ticket issued the first time, which was printed then.
+        // Should it race its original, the ticket's file is only written twice under the same name.
+        boolean repeated = queueEngine.isApplied(officeId, command.getRequestId());
+        QueuedTicket ticket;
+        try {
+            ticket = queueEngine.issue(officeId, command.getRequestId());
+        } catch (SQLException | IllegalArgumentException e) {
+            reply(conn, command, errorMessage("Error issuing a new ticket: " + e.getMessage()));
+            LOG.error("Error issuing new ticket: {}", e.getMessage());
+            return;
+        }
+        // The ticket is in the engine now; the file is written later by the printer
+        String officeName = OfficeCache.getName(officeId);
+        reply(conn, command, QueueMessage.command(MessageType.TICKET_ISSUED, officeId)
+                .withTicketNumber(ticket.getTicketNumber())
+                .withOfficeName(officeName != null ? officeName : "Unknown Office"));
+        if (repeated) {
+            return;
+        }
+        boolean queued = ticketPrinter.submit(ticket, officeName, file -> {
+            if (conn.isOpen()) {
+                send(conn, QueueMessage.command(MessageType.TICKET_PRINTED, officeId)
+                        .withTicketNumber(ticket.getTicketNumber())
+                        .withText(file.getFileName().toString()));
+            }
+        });
+        if (!queued) {
+            LOG.warn("Printer queue full, {} of office {} was issued but not printed.", ticket.getTicketNumber(), officeId);
+            reply(conn, command, errorMessage("The ticket printer is busy; " + ticket.getTicketNumber() + " was issued but not printed."));
+        }
+    }
 
-        String content = "Ticket Number: " + ticketNumber + "\n";
-        content += "Status: PENDING\n";
-        content += "Issued on: " + LocalDateTime.now().format(DateTimeFormatter.ofPattern("MMMM dd, yyyy hh:mm a")) + "\n";
-        content += "Office ID: " + officeId + "\n";
-        String officeName = fetchOfficeName(officeId);
-        if (officeName != null) {
-            content += "Office Name: " + officeName + "\n";
+    private void callNextTicket(WebSocket conn, QueueMessage command) {
+        int officeId = command.getOfficeId();
+        QueuedTicket ticket = queueEngine.callNext(officeId, command.getRequestId());
+        if (ticket != null) {
+            reply(conn, command, QueueMessage.command(MessageType.NOW_SERVING, officeId)
+                    .withTicketNumber(ticket.getTicketNumber())
+                    .withOfficeName(OfficeCache.getName(officeId)));
+        } else {
+            reply(conn, command, QueueMessage.command(MessageType.INFO, officeId).withText("No tickets in the queue for this office."));
         }
+    }
 
-        try (FileWriter writer = new FileWriter(filePath)) {
-            writer.write(content);
-        } catch (IOException e) {
-            throw new IOException("Error generating text file: " + e.getMessage(), e);
+    private void cancelTicket(WebSocket conn, QueueMessage command) {
+        int officeId = command.getOfficeId();
+        String ticketNumber = command.getTicketNumber();
+        if (ticketNumber != null && queueEngine.remove(officeId, ticketNumber, command.getRequestId()) != null) {
+            reply(conn, command, QueueMessage.command(MessageType.TICKET_CANCELLED, officeId).withTicketNumber(ticketNumber));
+        } else {
+            reply(conn, command, QueueMessage.command(MessageType.INFO, officeId).withText(ticketNumber + " is not waiting in the queue for this office."));
         }
     }
 
-    private String fetchOfficeName(int officeId) {
-        String officeName = null;
-        try (Connection connection = DatabaseConnection.getConnection();
-             PreparedStatement statement = connection.prepareStatement("SELECT name FROM offices WHERE id = ?")) {
-            statement.setInt(1, officeId);
-            try (ResultSet resultSet = statement.executeQuery()) {
-                if (resultSet.next()) {
-                    officeName = resultSet.getString("name");
+    /**
+     * A snapshot request that carries the client's last sequence from this
+     * server run is answered with just the events it missed, when they are
+     * all still in the office's history. Anything else gets a full snapshot.
+     * A live event can overtake the replay; the client then sees a gap and
+     * asks for a full snapshot, so the replay never has to block publishing.
+     */
+    private void resync(WebSocket conn, QueueMessage request) {
+        int officeId = request.getOfficeId();
+        if (request.getSequence() > 0 && request.getEpoch() == epoch) {
+            EventHistory history = eventHistories.get(officeId);
+            List<QueueMessage> missed = history != null ? history.since(request.getSequence()) : null;
+            if (missed != null) {
+                for (QueueMessage event : missed) {
+                    send(conn, event);
                 }
+                return;
             }
-        } catch (SQLException e) {
-            System.err.println("Error fetching office name: " + e.getMessage());
-        }
-        return officeName;
-    }
-
-    private void issueNewTicket(WebSocket conn, int officeId) throws IOException {
-        try (Connection connection = DatabaseConnection.getConnection();
-             PreparedStatement stmt = connection.prepareStatement("INSERT INTO tickets (ticket_number, status, created_at, office_id) VALUES (?, 'PENDING', NOW(), ?)")) {
-            int newTicketNumber = getLastTicketNumber(connection) + 1;
-            String newTicket = "Ticket-" + newTicketNumber;
-            stmt.setString(1, newTicket);
-            stmt.setInt(2, officeId);
-            stmt.executeUpdate();
-            String officeName = getOfficeName(connection, officeId);
-            conn.send("New ticket issued: " + newTicket + " (" + officeName + ")");
-            broadcastQueueStatus(officeId);
-            generateTicketText(newTicket, officeId);
-            conn.send("Ticket generated: ticket_" + newTicketNumber + ".txt");
-        } catch (SQLException e) {
-            conn.send("Error issuing a new ticket: " + e.getMessage());
-            System.err.println("Error issuing new ticket: " + e.getMessage());
         }
+        sendSnapshot(conn, officeId);
     }
 
-    private void callNextTicket(WebSocket conn, int officeId) {
-        try (Connection connection = DatabaseConnection.getConnection();
-             PreparedStatement stmt = connection.prepareStatement("SELECT t.id, t.ticket_number, o.name AS office_name FROM tickets t JOIN offices o ON t.office_id = o.id WHERE t.status = 'PENDING' AND t.office_id = ? ORDER BY t.id LIMIT 1")) {
-            stmt.setInt(1, officeId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    int id = rs.getInt("id");
-                    String nextTicket = rs.getString("ticket_number");
-                    String officeName = rs.getString("office_name");
-                    conn.send("Serving: " + nextTicket + " (" + officeName + ")");
+    // Full queue for clients that just connected or noticed a gap in the event sequence
+    private void sendSnapshot(WebSocket conn, int officeId) {
+        QueueSnapshot snapshot = queueEngine.getSnapshot(officeId);
+        List<String> tickets = new ArrayList<>(snapshot.getTickets().size());
+        for (QueuedTicket ticket : snapshot.getTickets()) {
+            tickets.add(ticket.getTicketNumber());
+        }
+        send(conn, QueueMessage.command(MessageType.SNAPSHOT, officeId)
+                .withSequence(snapshot.getSequence())
+                .withTickets(tickets)
+                .withTimestamp(System.currentTimeMillis())
+                .withEpoch(epoch)
+                .withServiceMillis(queueEngine.getEstimatedServiceMillis(officeId)));
+    }
 
-                    try (PreparedStatement updateStmt = connection.prepareStatement("UPDATE tickets SET status = 'SERVED' WHERE id = ?")) {
-                        updateStmt.setInt(1, id);
-                        updateStmt.executeUpdate();
-                    }
-                    broadcast("Serving: " + nextTicket + " (" + officeName + ")");
-                    broadcastQueueStatus(officeId);
-                } else {
-                    conn.send("No tickets in the queue for this office.");
-                }
-            }
-        } catch (SQLException e) {
-            conn.send("Error calling the next ticket: " + e.getMessage());
-            System.err.println("Error calling next ticket: " + e.getMessage());
+    // Answers a command, echoing its idempotency key so the client can drop it from its outbox
+    private void reply(WebSocket conn, QueueMessage command, QueueMessage message) {
+        send(conn, command.getRequestId() != null ? message.withRequestId(command.getRequestId()) : message);
+    }
+
+    private void send(WebSocket conn, QueueMessage message) {
+        ClientSession session = conn.getAttachment();
+        if (session != null && session.getFormat() == WireFormat.BINARY) {
+            conn.send(MessageCodec.encodeBinary(message));
+        } else {
+            conn.send(MessageCodec.encodeJson(message));
         }
     }
 
-    private String getOfficeName(Connection connection, int officeId) throws SQLException {
-        try (PreparedStatement stmt = connection.prepareStatement("SELECT name FROM offices WHERE id = ?")) {
-            stmt.setInt(1, officeId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getString("name");
-                }
-            }
+    // Encodes an office's event at most once per format and sends it only to that office's subscribers
+    private void publish(int officeId, QueueMessage message) {
+        long start = System.nanoTime();
+        EncodedMessage encoded = new EncodedMessage(message);
+        Subscribers subscribers = officeSubscribers.get(officeId);
+        int recipients = 0;
+        if (subscribers != null) {
+            recipients += deliver(subscribers, encoded);
         }
-        return "Unknown Office";
+        recipients += deliver(allOfficeSubscribers, encoded);
+        BROADCAST_TIMER.recordSince(start);
+        BROADCAST_RECIPIENTS.add(recipients);
     }
 
-    private int getLastTicketNumber(Connection connection) throws SQLException {
-        try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT MAX(id) AS max_id FROM tickets")) {
-            if (rs.next()) {
-                return rs.getInt("max_id");
-            }
+    private int deliver(Subscribers subscribers, EncodedMessage encoded) {
+        int recipients = 0;
+        if (!subscribers.json.isEmpty()) {
+            broadcast(encoded.json(), subscribers.json);
+            recipients += subscribers.json.size();
         }
-        return 0;
-    }
-
-    private void sendQueueStatus(WebSocket conn, int officeId) {
-        try (Connection connection = DatabaseConnection.getConnection();
-             PreparedStatement stmt = connection.prepareStatement("SELECT t.ticket_number, o.name AS office_name FROM tickets t JOIN offices o ON t.office_id = o.id WHERE t.status = 'PENDING' AND t.office_id = ? ORDER BY t.id")) {
-            stmt.setInt(1, officeId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                StringBuilder queueStatusBuilder = new StringBuilder("Queue Status: ");
-                boolean firstTicket = true;
-                while (rs.next()) {
-                    String ticketNumber = rs.getString("ticket_number");
-                    String officeName = rs.getString("office_name");
-                    if (!firstTicket) {
-                        queueStatusBuilder.append(", ");
-                    }
-                    queueStatusBuilder.append(ticketNumber).append(" (").append(officeName).append(")");
-                    firstTicket = false;
-                }
+        if (!subscribers.binary.isEmpty()) {
+            broadcast(encoded.binary(), subscribers.binary);
+            recipients += subscribers.binary.size();
+        }
+        return recipients;
+    }
 
-                if (queueStatusBuilder.length() == "Queue Status: ".length()) {
-                    queueStatusBuilder.append("The queue is empty for this office.");
-                }
-                conn.send(queueStatusBuilder.toString());
-            }
-        } catch (SQLException e) {
-            conn.send("Error fetching queue status: " + e.getMessage());
-            System.err.println("Error fetching queue status: " + e.getMessage());
-        }
-    }
-
-    private void broadcastQueueStatus(int officeId) {
-        try (Connection connection = DatabaseConnection.getConnection();
-             PreparedStatement stmt = connection.prepareStatement("SELECT t.ticket_number, o.name AS office_name FROM tickets t JOIN offices o ON t.office_id = o.id WHERE t.status = 'PENDING' AND t.office_id = ? ORDER BY t.id")) {
-            stmt.setInt(1, officeId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                StringBuilder queueStatusBuilder = new StringBuilder("Queue Status: ");
-                boolean firstTicket = true;
-                while (rs.next()) {
-                    String ticketNumber = rs.getString("ticket_number");
-                    String officeName = rs.getString("office_name");
-                    if (!firstTicket) {
-                        queueStatusBuilder.append(", ");
-                    }
-                    queueStatusBuilder.append(ticketNumber).append(" (").append(officeName).append(")");
-                    firstTicket = false;
-                }
+    // The engine publishes each office's events one at a time, so its history is in sequence order
+    private QueueMessage recordEvent(MessageType type, long sequence, QueuedTicket ticket) {
+        QueueMessage event = eventMessage(type, sequence, ticket)
+                .withServiceMillis(queueEngine.getEstimatedServiceMillis(ticket.getOfficeId()));
+        eventHistories.computeIfAbsent(ticket.getOfficeId(), id -> new EventHistory(eventHistorySize)).add(event);
+        return event;
+    }
 
-                if (queueStatusBuilder.length() == "Queue Status: ".length()) {
-                    queueStatusBuilder.append("The queue is empty for this office.");
-                }
-                broadcast(queueStatusBuilder.toString());
-            }
-        } catch (SQLException e) {
-            System.err.println("Error broadcasting queue status: " + e.getMessage());
-        }
+    // Events carry only the ticket that changed; clients keep their own copy of the queue and estimate waits from it
+    private static QueueMessage eventMessage(MessageType type, long sequence, QueuedTicket ticket) {
+        return QueueMessage.command(type, ticket.getOfficeId())
+                .withSequence(sequence)
+                .withTicketNumber(ticket.getTicketNumber())
+                .withTimestamp(System.currentTimeMillis());
+    }
+
+    private static QueueMessage errorMessage(String text) {
+        return new QueueMessage(MessageType.ERROR).withText(text);
     }
 
     public static void main(String[] args) {
         String lanIp = getLanIpAddress(); // Get LAN IP address using Method 2
         if (lanIp == null) {
-            System.err.println("Could not determine a suitable LAN IP address. Exiting.");
+            LOG.warn("Could not determine a suitable LAN IP address. Exiting.");
             return;
         }
-        System.out.println("LAN IP Address: " + lanIp);
+        LOG.info("LAN IP Address: {}", lanIp);
         int port = 8080; // Choose your port
         InetSocketAddress address = new InetSocketAddress(lanIp, port);
         QueueManagementServer server = new QueueManagementServer(address);
         try {
             server.start();
-            System.out.println("Queue Management WebSocket server started on " + lanIp + ":" + port);
+            LOG.info("Queue Management WebSocket server started on {}:{}", lanIp, port);
 
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 try {
                     server.stop();
-                    System.out.println("Server stopped successfully.");
+                    LOG.info("Server stopped successfully.");
                     DatabaseConnection.closeConnection();
                 } catch (InterruptedException | SQLException e) {
-                    System.err.println("Error while stopping the server: " + e.getMessage());
+                    LOG.error("Error while stopping the server: {}", e.getMessage());
                 }
             }));
         } catch (Exception e) {
-            System.err.println("Error starting the server: " + e.getMessage());
+            LOG.error("Error starting the server: {}", e.getMessage());
         }
     }
 
@@ -286,8 +471,80 @@ public class QueueManagementServer extends WebSocketServer {
                 }
             }
         } catch (SocketException e) {
-            System.err.println("Error getting network interfaces: " + e.getMessage());
+            LOG.error("Error getting network interfaces: {}", e.getMessage());
         }
         return null; // Return null if no suitable IP address is found
     }
+
+    private static class Subscribers {
+
+        private final Set<WebSocket> json = ConcurrentHashMap.newKeySet();
+        private final Set<WebSocket> binary = ConcurrentHashMap.newKeySet();
+
+        void add(WebSocket conn, WireFormat format) {
+            (format == WireFormat.BINARY ? binary : json).add(conn);
+        }
+
+        void remove(WebSocket conn) {
+            json.remove(conn);
+            binary.remove(conn);
+        }
+    }
+
+    private static class EventHistory {
+
+        private final Deque<QueueMessage> events = new ArrayDeque<>();
+        private final int capacity;
+
+        EventHistory(int capacity) {
+            this.capacity = Math.max(1, capacity);
+        }
+
+        synchronized void add(QueueMessage event) {
+            if (events.size() == capacity) {
+                events.removeFirst();
+            }
+            events.addLast(event);
+        }
+
+        // Events after the given sequence, or null when some of them have already been dropped
+        synchronized List<QueueMessage> since(long sequence) {
+            QueueMessage oldest = events.peekFirst();
+            if (oldest == null || oldest.getSequence() > sequence + 1) {
+                return null;
+            }
+            List<QueueMessage> missed = new ArrayList<>();
+            for (QueueMessage event : events) {
+                if (event.getSequence() > sequence) {
+                    missed.add(event);
+                }
+            }
+            return missed;
+        }
+    }
+
+    private static class EncodedMessage {
+
+        private final QueueMessage message;
+        private String json;
+        private ByteBuffer binary;
+
+        EncodedMessage(QueueMessage message) {
+            this.message = message;
+        }
+
+        String json() {
+            if (json == null) {
+                json = MessageCodec.encodeJson(message);
+            }
+            return json;
+        }
+
+        ByteBuffer binary() {
+            if (binary == null) {
+                binary = MessageCodec.encodeBinary(message);
+            }
+            return binary.duplicate();
+        }
+    }
 }
@@ -0,0 +1,29 @@
+package dorsu.jareth.queue;
+
+import java.util.List;
+
+public class QueueSnapshot {
+
+    private final int officeId;
+    private final long sequence;
+    private final List<QueuedTicket> tickets;
+
+    public QueueSnapshot(int officeId, long sequence, List<QueuedTicket> tickets) {
+        this.officeId = officeId;
+        this.sequence = sequence;
+        this.tickets = tickets;
+    }
+
+    public int getOfficeId() {
+        return officeId;
+    }
+
+    // Sequence of the last event already reflected in the ticket list
+    public long getSequence() {
+        return sequence;
+    }
+
+    public List<QueuedTicket> getTickets() {
+        return tickets;
+    }
+}
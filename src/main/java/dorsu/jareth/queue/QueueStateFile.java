@@ -0,0 +1,232 @@
+package dorsu.jareth.queue;
+
+import dorsu.jareth.util.Loggers;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The queue engine's compact snapshot: every office's waiting tickets and
+ * last call, and for each office the event log sequence its state already
+ * includes. Restoring it and replaying the newer log records rebuilds the
+ * queues without reading the tickets table. Since version 2 it also keeps
+ * each office's reserved but unused ticket numbers, so issuing can resume
+ * without reserving new ones, and since version 3 each office's dedup
+ * window of recently applied commands; older versions are still read.
+ *
+ * Written to a temporary file and moved into place, with a CRC32 at the end,
+ * so a crash mid-write leaves the previous snapshot untouched.
+ */
+public class QueueStateFile {
+
+    private static final Logger LOG = Loggers.server(QueueStateFile.class);
+
+    private static final int MAGIC = 0x51534E50;
+    private static final int VERSION = 3;
+
+    private final Path file;
+
+    public QueueStateFile(Path file) {
+        this.file = file;
+    }
+
+    public void write(int lastTicketId, long logSequence, List<OfficeState> offices) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (OutputStream stream = Files.newOutputStream(temporary);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(stream, crc)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(lastTicketId);
+            out.writeLong(logSequence);
+            out.writeInt(offices.size());
+            for (OfficeState office : offices) {
+                out.writeInt(office.officeId);
+                out.writeLong(office.coveredSequence);
+                out.writeBoolean(office.lastCalled != null);
+                if (office.lastCalled != null) {
+                    office.lastCalled.writeTo(out);
+                    out.writeUTF(office.lastCalledAt.toString());
+                }
+                out.writeInt(office.tickets.size());
+                for (QueuedTicket ticket : office.tickets) {
+                    ticket.writeTo(out);
+                }
+                out.writeInt(office.unusedNumbers.size());
+                for (TicketNumberAllocator.NumberRange range : office.unusedNumbers) {
+                    out.writeLong(range.getDate().toEpochDay());
+                    out.writeInt(range.getNext());
+                    out.writeInt(range.getEnd());
+                }
+                out.writeInt(office.requests.size());
+                for (RecentRequests.Applied request : office.requests) {
+                    out.writeUTF(request.getRequestId());
+                    out.writeLong(request.getAppliedAt());
+                    request.getTicket().writeTo(out);
+                }
+            }
+            out.flush();
+            // Not part of the checksum, which is taken over everything before it
+            new DataOutputStream(stream).writeLong(crc.getValue());
+        }
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Null when there is no snapshot yet or it cannot be trusted
+    public Snapshot read() {
+        CRC32 crc = new CRC32();
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(file))) {
+            DataInputStream in = new DataInputStream(new CheckedInputStream(stream, crc));
+            int version = in.readInt() == MAGIC ? in.readInt() : 0;
+            if (version < 1 || version > VERSION) {
+                LOG.warn("Ignoring {}: not a queue snapshot this version can read.", file);
+                return null;
+            }
+            int lastTicketId = in.readInt();
+            long logSequence = in.readLong();
+            int officeCount = in.readInt();
+            List<OfficeState> offices = new ArrayList<>(officeCount);
+            for (int i = 0; i < officeCount; i++) {
+                int officeId = in.readInt();
+                long coveredSequence = in.readLong();
+                QueuedTicket lastCalled = null;
+                LocalDateTime lastCalledAt = null;
+                if (in.readBoolean()) {
+                    lastCalled = QueuedTicket.readFrom(in);
+                    lastCalledAt = LocalDateTime.parse(in.readUTF());
+                }
+                int ticketCount = in.readInt();
+                List<QueuedTicket> tickets = new ArrayList<>(ticketCount);
+                for (int j = 0; j < ticketCount; j++) {
+                    tickets.add(QueuedTicket.readFrom(in));
+                }
+                List<TicketNumberAllocator.NumberRange> unusedNumbers = new ArrayList<>();
+                int rangeCount = version >= 2 ? in.readInt() : 0;
+                for (int j = 0; j < rangeCount; j++) {
+                    unusedNumbers.add(new TicketNumberAllocator.NumberRange(LocalDate.ofEpochDay(in.readLong()), in.readInt(), in.readInt()));
+                }
+                List<RecentRequests.Applied> requests = new ArrayList<>();
+                int requestCount = version >= 3 ? in.readInt() : 0;
+                for (int j = 0; j < requestCount; j++) {
+                    String requestId = in.readUTF();
+                    long appliedAt = in.readLong();
+                    requests.add(new RecentRequests.Applied(requestId, QueuedTicket.readFrom(in), appliedAt));
+                }
+                offices.add(new OfficeState(officeId, coveredSequence, tickets, lastCalled, lastCalledAt, unusedNumbers, requests));
+            }
+            long expected = crc.getValue();
+            if (new DataInputStream(stream).readLong() != expected) {
+                LOG.warn("Ignoring {}: checksum mismatch.", file);
+                return null;
+            }
+            return new Snapshot(lastTicketId, logSequence, offices);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Ignoring unreadable queue snapshot {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    public static class Snapshot {
+
+        private final int lastTicketId;
+        private final long logSequence;
+        private final List<OfficeState> offices;
+
+        Snapshot(int lastTicketId, long logSequence, List<OfficeState> offices) {
+            this.lastTicketId = lastTicketId;
+            this.logSequence = logSequence;
+            this.offices = offices;
+        }
+
+        public int getLastTicketId() {
+            return lastTicketId;
+        }
+
+        // Every log record up to this sequence is reflected in the snapshot, whichever office it belongs to
+        public long getLogSequence() {
+            return logSequence;
+        }
+
+        public List<OfficeState> getOffices() {
+            return offices;
+        }
+    }
+
+    public static class OfficeState {
+
+        private final int officeId;
+        private final long coveredSequence;
+        private final List<QueuedTicket> tickets;
+        private final QueuedTicket lastCalled;
+        private final LocalDateTime lastCalledAt;
+        private final List<TicketNumberAllocator.NumberRange> unusedNumbers;
+        private final List<RecentRequests.Applied> requests;
+
+        public OfficeState(int officeId, long coveredSequence, List<QueuedTicket> tickets, QueuedTicket lastCalled,
+                LocalDateTime lastCalledAt, List<TicketNumberAllocator.NumberRange> unusedNumbers, List<RecentRequests.Applied> requests) {
+            this.officeId = officeId;
+            this.coveredSequence = coveredSequence;
+            this.tickets = tickets;
+            this.lastCalled = lastCalled;
+            this.lastCalledAt = lastCalledAt;
+            this.unusedNumbers = unusedNumbers;
+            this.requests = requests;
+        }
+
+        public int getOfficeId() {
+            return officeId;
+        }
+
+        // Every record of this office up to this sequence is already reflected in its state
+        public long getCoveredSequence() {
+            return coveredSequence;
+        }
+
+        public List<QueuedTicket> getTickets() {
+            return tickets;
+        }
+
+        public QueuedTicket getLastCalled() {
+            return lastCalled;
+        }
+
+        public LocalDateTime getLastCalledAt() {
+            return lastCalledAt;
+        }
+
+        public List<TicketNumberAllocator.NumberRange> getUnusedNumbers() {
+            return unusedNumbers;
+        }
+
+        // Commands applied within the dedup window, oldest first
+        public List<RecentRequests.Applied> getRequests() {
+            return requests;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package dorsu.jareth.queue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+public class QueuedTicket {
+
+    private final int id;
+    private final String ticketNumber;
+    private final int officeId;
+    private final LocalDateTime createdAt;
+
+    public QueuedTicket(int id, String ticketNumber, int officeId, LocalDateTime createdAt) {
+        this.id = id;
+        this.ticketNumber = ticketNumber;
+        this.officeId = officeId;
+        this.createdAt = createdAt;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getTicketNumber() {
+        return ticketNumber;
+    }
+
+    public int getOfficeId() {
+        return officeId;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    // Binary form used by the event log and the queue snapshot file
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(id);
+        out.writeUTF(ticketNumber);
+        out.writeInt(officeId);
+        out.writeUTF(createdAt.toString());
+    }
+
+    static QueuedTicket readFrom(DataInput in) throws IOException {
+        return new QueuedTicket(in.readInt(), in.readUTF(), in.readInt(), LocalDateTime.parse(in.readUTF()));
+    }
+}
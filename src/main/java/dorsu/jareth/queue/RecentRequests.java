@@ -0,0 +1,95 @@
+package dorsu.jareth.queue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * One office's dedup window: the ticket each command idempotency key issued,
+ * called or removed in the last windowMillis, up to maxEntries keys. A
+ * command whose key is still here was already applied, so the engine
+ * answers with the same ticket instead of changing the queue a second time.
+ *
+ * Guarded by the office's lock in {@link QueueEngine}. A key is looked up
+ * and recorded in the same critical section as the change it belongs to, so
+ * a retry cannot apply a command twice even when it runs alongside the
+ * original. Keys are logged with their change and kept in the queue
+ * snapshot, so the window also survives a server restart; that is why ages
+ * are measured in wall-clock time.
+ */
+public class RecentRequests {
+
+    private final long windowMillis;
+    private final int maxEntries;
+    // Insertion order is arrival order, so expired keys are always at the front
+    private final LinkedHashMap<String, Applied> applied = new LinkedHashMap<>();
+
+    public RecentRequests(long windowMillis, int maxEntries) {
+        this.windowMillis = windowMillis;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    // The ticket the command already changed, or null when it has not been applied
+    public QueuedTicket get(String requestId, long now) {
+        if (requestId == null) {
+            return null;
+        }
+        evictExpired(now);
+        Applied entry = applied.get(requestId);
+        return entry != null ? entry.ticket : null;
+    }
+
+    // Only the first change of a key is kept; it is the one the client is waiting to hear about
+    public void add(Applied entry, long now) {
+        evictExpired(now);
+        if (entry.appliedAt < now - windowMillis || applied.containsKey(entry.requestId)) {
+            return;
+        }
+        if (applied.size() >= maxEntries) {
+            Iterator<String> eldest = applied.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        applied.put(entry.requestId, entry);
+    }
+
+    // The keys still inside the window, oldest first, for the snapshot
+    public List<Applied> entries(long now) {
+        evictExpired(now);
+        return new ArrayList<>(applied.values());
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Applied> it = applied.values().iterator();
+        while (it.hasNext() && now - it.next().appliedAt > windowMillis) {
+            it.remove();
+        }
+    }
+
+    public static class Applied {
+
+        private final String requestId;
+        private final QueuedTicket ticket;
+        private final long appliedAt;
+
+        public Applied(String requestId, QueuedTicket ticket, long appliedAt) {
+            this.requestId = requestId;
+            this.ticket = ticket;
+            this.appliedAt = appliedAt;
+        }
+
+        public String getRequestId() {
+            return requestId;
+        }
+
+        public QueuedTicket getTicket() {
+            return ticket;
+        }
+
+        // Wall-clock milliseconds
+        public long getAppliedAt() {
+            return appliedAt;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package dorsu.jareth.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import javafx.collections.ObservableListBase;
+
+/**
+ * A fixed-size, read-only log for a ListView. Lines live in a circular
+ * array, so appending to a full log overwrites the oldest line instead of
+ * shifting every other one, and memory stays flat however long a counter
+ * session runs. The ListView only builds cells for the rows on screen.
+ */
+public class RingBufferLog extends ObservableListBase<String> {
+
+    private final String[] lines;
+    // Slot of the oldest line
+    private int head;
+    private int size;
+
+    public RingBufferLog(int capacity) {
+        this.lines = new String[Math.max(1, capacity)];
+    }
+
+    @Override
+    public String get(int index) {
+        Objects.checkIndex(index, size);
+        return lines[(head + index) % lines.length];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // Appends a batch as a single list change, dropping the oldest lines once the log is full
+    public void appendAll(List<String> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int capacity = lines.length;
+        // Only the newest lines of an oversized batch could survive anyway
+        int first = Math.max(0, batch.size() - capacity);
+        int evicted = Math.max(0, size + batch.size() - first - capacity);
+        beginChange();
+        try {
+            if (evicted > 0) {
+                List<String> removed = new ArrayList<>(evicted);
+                for (int i = 0; i < evicted; i++) {
+                    int slot = (head + i) % capacity;
+                    removed.add(lines[slot]);
+                    lines[slot] = null;
+                }
+                head = (head + evicted) % capacity;
+                size -= evicted;
+                nextRemove(0, removed);
+            }
+            int from = size;
+            for (int i = first; i < batch.size(); i++) {
+                lines[(head + size) % capacity] = batch.get(i);
+                size++;
+            }
+            nextAdd(from, size);
+        } finally {
+            endChange();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package dorsu.jareth.queue;
+
+import dorsu.jareth.metrics.Metrics;
+import dorsu.jareth.metrics.Metrics.Sample;
+import dorsu.jareth.util.AppConfig;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.application.Application;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.collections.FXCollections;
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableRow;
+import javafx.scene.control.TableView;
+import javafx.scene.control.Tooltip;
+import javafx.scene.layout.BorderPane;
+import javafx.stage.Stage;
+import javafx.util.Duration;
+
+import static javafx.application.Application.launch;
+
+/**
+ * Live view of the embedded server's {@link Metrics}: command and database
+ * latencies, broadcast fan-out, connections, send buffers and per-office
+ * queue lengths. The same values are served to Prometheus at /metrics.
+ */
+public class ServerMetricsView extends Application {
+
+    private final TableView<Sample> table = createTable();
+    private Timeline refresher;
+
+    private TableView<Sample> createTable() {
+        TableView<Sample> table = new TableView<>();
+
+        TableColumn<Sample, String> nameColumn = new TableColumn<>("Metric");
+        nameColumn.setCellValueFactory(p -> new ReadOnlyStringWrapper(p.getValue().getName()));
+        nameColumn.setPrefWidth(280);
+
+        TableColumn<Sample, String> labelsColumn = new TableColumn<>("Labels");
+        labelsColumn.setCellValueFactory(p -> new ReadOnlyStringWrapper(p.getValue().getLabels()));
+        labelsColumn.setPrefWidth(180);
+
+        TableColumn<Sample, String> valueColumn = new TableColumn<>("Value");
+        valueColumn.setCellValueFactory(p -> new ReadOnlyStringWrapper(p.getValue().getValue()));
+        valueColumn.setPrefWidth(400);
+
+        table.getColumns().addAll(nameColumn, labelsColumn, valueColumn);
+        table.setRowFactory(t -> new TableRow<>() {
+            @Override
+            protected void updateItem(Sample sample, boolean empty) {
+                super.updateItem(sample, empty);
+                setTooltip(sample == null || empty ? null : new Tooltip(sample.getHelp()));
+            }
+        });
+        table.setPlaceholder(new Label("No metrics yet. Start the server to collect them."));
+        return table;
+    }
+
+    private void refresh() {
+        table.setItems(FXCollections.observableArrayList(Metrics.samples()));
+    }
+
+    @Override
+    public void start(Stage stage) throws Exception {
+        refresh();
+        refresher = new Timeline(new KeyFrame(Duration.millis(AppConfig.getLong("metrics.viewRefreshMillis", 2000)), e -> refresh()));
+        refresher.setCycleCount(Animation.INDEFINITE);
+        refresher.play();
+
+        Scene scene = new Scene(new BorderPane(table), 880, 600);
+        stage.setScene(scene);
+        stage.setTitle("Queue Management System - Server Metrics");
+        stage.setOnHidden(e -> refresher.stop());
+        stage.show();
+    }
+
+    public static void main(String[] args) throws Exception {
+        launch(args);
+    }
+}
@@ -0,0 +1,64 @@
+package dorsu.jareth.queue;
+
+import dorsu.jareth.util.AppConfig;
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Running estimate of an office's throughput, as an exponentially weighted
+ * moving average of the time between its calls across all of its counters.
+ * With one counter that is the time per ticket; with three it is about a
+ * third of it, because three tickets are in service at once. Either way the
+ * wait for queue position n is n times the average, so displays get a wait
+ * estimate with every queue event without knowing which counter called.
+ * Each call updates it in constant time and memory.
+ *
+ * Idle time is left out: an interval starts at the later of the previous
+ * call and the called ticket's arrival. Intervals across midnight or longer
+ * than queue.etaMaxServiceSeconds (breaks, closing time) are ignored.
+ * queue.etaSmoothing is the weight of the newest interval.
+ */
+public class ServiceRateEstimator {
+
+    private static final double SMOOTHING = Double.parseDouble(AppConfig.get("queue.etaSmoothing", "0.2"));
+    private static final long MAX_SAMPLE_MILLIS = AppConfig.getLong("queue.etaMaxServiceSeconds", 1800) * 1000;
+
+    // Written under the office lock, read by the metrics and the server without it
+    private volatile long meanMillis;
+
+    // Called under the office lock with the office's previous call, if any
+    public void record(LocalDateTime previousCalledAt, LocalDateTime ticketCreatedAt, LocalDateTime calledAt) {
+        long sample = callInterval(previousCalledAt, ticketCreatedAt, calledAt);
+        if (sample <= 0) {
+            return;
+        }
+        long mean = meanMillis;
+        meanMillis = mean == 0 ? sample : Math.max(1, Math.round(SMOOTHING * sample + (1 - SMOOTHING) * mean));
+    }
+
+    /**
+     * The time a call took to come round, by the rules above, or -1 when it
+     * does not count. Shared with the daily statistics, so the seeds they
+     * give later runs measure the same thing.
+     */
+    public static long callInterval(LocalDateTime previousCalledAt, LocalDateTime ticketCreatedAt, LocalDateTime calledAt) {
+        if (previousCalledAt == null || !previousCalledAt.toLocalDate().equals(calledAt.toLocalDate())) {
+            return -1;
+        }
+        LocalDateTime start = ticketCreatedAt.isAfter(previousCalledAt) ? ticketCreatedAt : previousCalledAt;
+        long sample = Duration.between(start, calledAt).toMillis();
+        return sample <= 0 || sample > MAX_SAMPLE_MILLIS ? -1 : sample;
+    }
+
+    // A starting value from earlier days, used only until the first call is measured
+    public void seed(long millis) {
+        if (meanMillis == 0 && millis > 0) {
+            meanMillis = millis;
+        }
+    }
+
+    // Average time between calls, 0 while there is nothing to go on
+    public long getMeanMillis() {
+        return meanMillis;
+    }
+}
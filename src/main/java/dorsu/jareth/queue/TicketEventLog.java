@@ -0,0 +1,163 @@
+package dorsu.jareth.queue;
+
+import dorsu.jareth.util.Loggers;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Append-only local log of the queue engine's ticket events, kept as
+ * segment files named after the sequence of their first record. Each record
+ * is [int length][int crc32][payload], appended with one positional write.
+ * A write lands in the OS page cache, which outlives a crash of this
+ * process; with sync on, every append is also forced to disk, which
+ * survives a power cut too at the cost of a disk flush per event.
+ *
+ * The segments are written rather than memory-mapped: Windows refuses to
+ * delete a file while a mapping of it is alive, and a mapping only goes away
+ * when the garbage collector gets to it.
+ *
+ * A crash can leave a half-written record at the end; reading stops at the
+ * first record whose length or checksum does not add up, and the newest
+ * segment is cut back to there. A zero length also ends a segment, as in
+ * the zero-filled segments of earlier versions. Old segments are deleted
+ * whole once everything in them is both in a snapshot and in MySQL; one
+ * that cannot be deleted yet is tried again at the next checkpoint.
+ */
+public class TicketEventLog {
+
+    private static final Logger LOG = Loggers.server(TicketEventLog.class);
+
+    private static final int HEADER_BYTES = 8;
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final boolean sync;
+    // First sequence of every segment, oldest first; the last one is being appended to
+    private final List<Long> segmentStarts = new ArrayList<>();
+    private FileChannel channel;
+    // Where the next record goes in the newest segment
+    private long position;
+
+    public TicketEventLog(Path directory, int segmentBytes, boolean sync) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.sync = sync;
+    }
+
+    // Opens the log and returns every record in it, oldest first
+    public synchronized List<byte[]> open() throws IOException {
+        Files.createDirectories(directory);
+        segmentStarts.clear();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segmentStarts.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Ignoring unexpected file in the event log directory: {}", file);
+                }
+            }
+        }
+        segmentStarts.sort(null);
+        List<byte[]> records = new ArrayList<>();
+        for (int i = 0; i < segmentStarts.size(); i++) {
+            Path file = segmentFile(segmentStarts.get(i));
+            int end = read(file, records);
+            if (i == segmentStarts.size() - 1) {
+                channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                // Drops whatever a torn write left behind, so it cannot be mistaken for a record later
+                channel.truncate(end);
+                position = end;
+            }
+        }
+        return records;
+    }
+
+    public synchronized void append(long sequence, byte[] payload) throws IOException {
+        int length = HEADER_BYTES + payload.length;
+        if (channel == null || (position > 0 && position + length > segmentBytes)) {
+            roll(sequence);
+        }
+        ByteBuffer record = ByteBuffer.allocate(length).putInt(payload.length).putInt(checksum(payload)).put(payload).flip();
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+        if (sync) {
+            channel.force(false);
+        }
+    }
+
+    // Deletes the segments whose records all have a sequence up to and including this one
+    public synchronized void deleteUpTo(long sequence) {
+        while (segmentStarts.size() > 1 && segmentStarts.get(1) - 1 <= sequence) {
+            Path file = segmentFile(segmentStarts.get(0));
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // Still listed, so the next checkpoint tries it again
+                LOG.warn("Could not delete {} yet: {}", file, e.getMessage());
+                return;
+            }
+            segmentStarts.remove(0);
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            if (sync) {
+                channel.force(false);
+            }
+            channel.close();
+            channel = null;
+        }
+    }
+
+    // Reads one segment's records and returns where the last complete one ends
+    private static int read(Path file, List<byte[]> records) throws IOException {
+        ByteBuffer segment = ByteBuffer.wrap(Files.readAllBytes(file));
+        int position = 0;
+        while (position + HEADER_BYTES <= segment.capacity()) {
+            int length = segment.getInt(position);
+            int checksum = segment.getInt(position + 4);
+            if (length <= 0 || position + HEADER_BYTES + length > segment.capacity()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            segment.get(position + HEADER_BYTES, payload);
+            if (checksum(payload) != checksum) {
+                LOG.warn("Ignoring an incomplete record at the end of {}", file);
+                break;
+            }
+            records.add(payload);
+            position += HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    private void roll(long sequence) throws IOException {
+        close();
+        channel = FileChannel.open(segmentFile(sequence), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        position = 0;
+        segmentStarts.add(sequence);
+    }
+
+    private Path segmentFile(long firstSequence) {
+        return directory.resolve(String.format("%020d", firstSequence) + SUFFIX);
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,204 @@
+package dorsu.jareth.queue;
+
+import dorsu.jareth.queue.TicketsTable.Ticket;
+import dorsu.jareth.util.DatabaseConnection;
+import dorsu.jareth.util.Loggers;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Loads ticket history one page at a time using keyset pagination: a page
+ * is "the next N rows after row X" in the query's sort order, which MySQL
+ * answers with an index seek no matter how deep into the history the page
+ * is. The last row of every loaded page is remembered so the following page
+ * can seek to it. Jumping to a page whose start is not known yet walks
+ * forward from the nearest known page, reading only the sort key and id.
+ *
+ * Up to maxCachedPages pages are kept, least recently used first out, and
+ * the pages on either side of the one being viewed are loaded in the
+ * background so flipping through history does not wait for MySQL.
+ */
+public class TicketHistoryPager {
+
+    private static final Logger LOG = Loggers.db(TicketHistoryPager.class);
+
+    private final TicketHistoryQuery query;
+    private final int pageSize;
+    private final Map<Integer, List<Ticket>> pages;
+    // Page index -> last row before that page; page 0 starts at the beginning
+    private final NavigableMap<Integer, PageStart> pageStarts = new TreeMap<>();
+    private final ExecutorService loader = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "ticket-history-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public TicketHistoryPager(TicketHistoryQuery query, int pageSize, int maxCachedPages) {
+        this.query = query;
+        this.pageSize = pageSize;
+        this.pages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<Ticket>> eldest) {
+                return size() > maxCachedPages;
+            }
+        };
+        pageStarts.put(0, PageStart.BEGINNING);
+    }
+
+    public TicketHistoryQuery getQuery() {
+        return query;
+    }
+
+    public int countPages() throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM tickets");
+        List<Object> parameters = new ArrayList<>();
+        query.appendWhere(sql, parameters, null, null);
+        try (Connection connection = DatabaseConnection.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            TicketHistoryQuery.bind(statement, parameters);
+            try (ResultSet rs = statement.executeQuery()) {
+                int rows = rs.next() ? rs.getInt(1) : 0;
+                return Math.max(1, (rows + pageSize - 1) / pageSize);
+            }
+        }
+    }
+
+    public List<Ticket> getCachedPage(int pageIndex) {
+        synchronized (pages) {
+            return pages.get(pageIndex);
+        }
+    }
+
+    public CompletableFuture<List<Ticket>> loadPageAsync(int pageIndex) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return loadPage(pageIndex);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, loader);
+    }
+
+    public List<Ticket> loadPage(int pageIndex) throws SQLException {
+        List<Ticket> page = getCachedPage(pageIndex);
+        if (page != null) {
+            return page;
+        }
+        try (Connection connection = DatabaseConnection.getConnection()) {
+            PageStart start = findPageStart(connection, pageIndex);
+            if (start == PageStart.PAST_END) {
+                return Collections.emptyList();
+            }
+            StringBuilder sql = new StringBuilder("SELECT id, ticket_number, status, created_at, office_id FROM tickets");
+            List<Object> parameters = new ArrayList<>();
+            query.appendWhere(sql, parameters, start.sortValue, start.id);
+            sql.append(query.orderBy()).append(" LIMIT ?");
+            parameters.add(pageSize);
+            page = new ArrayList<>(pageSize);
+            try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+                TicketHistoryQuery.bind(statement, parameters);
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        Timestamp createdAt = rs.getTimestamp("created_at");
+                        page.add(new Ticket(rs.getInt("id"), rs.getString("ticket_number"), rs.getString("status"),
+                                createdAt.toLocalDateTime(), OfficeCache.getName(rs.getInt("office_id"))));
+                    }
+                }
+            }
+        }
+        page = Collections.unmodifiableList(page);
+        synchronized (pages) {
+            pages.put(pageIndex, page);
+            if (!page.isEmpty()) {
+                Ticket last = page.get(page.size() - 1);
+                pageStarts.put(pageIndex + 1, new PageStart(sortValue(last), last.getId()));
+            }
+        }
+        return page;
+    }
+
+    // Warms the cache for the pages next to the one on screen
+    public void prefetchAround(int pageIndex) {
+        for (int neighbour : new int[]{pageIndex + 1, pageIndex - 1}) {
+            if (neighbour >= 0 && getCachedPage(neighbour) == null) {
+                loadPageAsync(neighbour).exceptionally(e -> {
+                    LOG.error("Error prefetching ticket history: {}", e.getMessage());
+                    return null;
+                });
+            }
+        }
+    }
+
+    public void close() {
+        loader.shutdownNow();
+    }
+
+    private PageStart findPageStart(Connection connection, int pageIndex) throws SQLException {
+        Map.Entry<Integer, PageStart> known;
+        synchronized (pages) {
+            known = pageStarts.floorEntry(pageIndex);
+        }
+        if (known.getKey() == pageIndex || known.getValue() == PageStart.PAST_END) {
+            return known.getValue();
+        }
+        // Skip whole pages from the nearest known start, reading the sort key and id only
+        String column = query.getSortColumn().getColumn();
+        StringBuilder sql = new StringBuilder("SELECT " + column + ", id FROM tickets");
+        List<Object> parameters = new ArrayList<>();
+        query.appendWhere(sql, parameters, known.getValue().sortValue, known.getValue().id);
+        sql.append(query.orderBy()).append(" LIMIT 1 OFFSET ?");
+        parameters.add((pageIndex - known.getKey()) * pageSize - 1);
+        try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            TicketHistoryQuery.bind(statement, parameters);
+            try (ResultSet rs = statement.executeQuery()) {
+                PageStart start = rs.next() ? new PageStart(rs.getObject(1), rs.getInt(2)) : PageStart.PAST_END;
+                synchronized (pages) {
+                    pageStarts.put(pageIndex, start);
+                }
+                return start;
+            }
+        }
+    }
+
+    private Object sortValue(Ticket ticket) {
+        switch (query.getSortColumn()) {
+            case TICKET_NUMBER:
+                return ticket.getTicketNumber();
+            case STATUS:
+                return ticket.getStatus();
+            case CREATED_AT:
+                return Timestamp.valueOf(ticket.getCreatedAt());
+            default:
+                return ticket.getId();
+        }
+    }
+
+    private static class PageStart {
+
+        static final PageStart BEGINNING = new PageStart(null, null);
+        static final PageStart PAST_END = new PageStart(null, null);
+
+        final Object sortValue;
+        final Integer id;
+
+        PageStart(Object sortValue, Integer id) {
+            this.sortValue = sortValue;
+            this.id = id;
+        }
+    }
+}
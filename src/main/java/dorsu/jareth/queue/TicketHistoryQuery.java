@@ -0,0 +1,160 @@
+package dorsu.jareth.queue;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Filters and sort order for the ticket history. Everything here becomes
+ * part of the SQL WHERE and ORDER BY clauses, so MySQL can answer from the
+ * tickets indexes instead of the client scanning rows. Unset filters match
+ * everything.
+ */
+public class TicketHistoryQuery {
+
+    public enum SortColumn {
+        ID("id"),
+        TICKET_NUMBER("ticket_number"),
+        STATUS("status"),
+        CREATED_AT("created_at");
+
+        private final String column;
+
+        SortColumn(String column) {
+            this.column = column;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+    }
+
+    private Integer officeId;
+    private String status;
+    private LocalDate fromDate;
+    private LocalDate toDate;
+    private String ticketNumber;
+    private SortColumn sortColumn = SortColumn.ID;
+    private boolean ascending = true;
+
+    public Integer getOfficeId() {
+        return officeId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public LocalDate getFromDate() {
+        return fromDate;
+    }
+
+    public LocalDate getToDate() {
+        return toDate;
+    }
+
+    public String getTicketNumber() {
+        return ticketNumber;
+    }
+
+    public SortColumn getSortColumn() {
+        return sortColumn;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    public TicketHistoryQuery withOfficeId(Integer officeId) {
+        this.officeId = officeId;
+        return this;
+    }
+
+    public TicketHistoryQuery withStatus(String status) {
+        this.status = status == null || status.isBlank() ? null : status;
+        return this;
+    }
+
+    // Both ends are inclusive whole days
+    public TicketHistoryQuery withDateRange(LocalDate fromDate, LocalDate toDate) {
+        this.fromDate = fromDate;
+        this.toDate = toDate;
+        return this;
+    }
+
+    // Matches ticket numbers starting with the given text, e.g. "Ticket-12" finds Ticket-12 and Ticket-120
+    public TicketHistoryQuery withTicketNumber(String ticketNumber) {
+        this.ticketNumber = ticketNumber == null || ticketNumber.isBlank() ? null : ticketNumber.trim();
+        return this;
+    }
+
+    public TicketHistoryQuery withSort(SortColumn sortColumn, boolean ascending) {
+        this.sortColumn = sortColumn;
+        this.ascending = ascending;
+        return this;
+    }
+
+    /**
+     * Appends "WHERE ..." for the filters, plus the keyset condition that
+     * starts the page after the given row when afterSortValue/afterId are
+     * set, and collects the matching parameters in order.
+     */
+    void appendWhere(StringBuilder sql, List<Object> parameters, Object afterSortValue, Integer afterId) {
+        List<String> conditions = new ArrayList<>();
+        if (officeId != null) {
+            conditions.add("office_id = ?");
+            parameters.add(officeId);
+        }
+        if (status != null) {
+            conditions.add("status = ?");
+            parameters.add(status);
+        }
+        // Compared against the bare column, never DATE(created_at), so the index still applies
+        if (fromDate != null) {
+            conditions.add("created_at >= ?");
+            parameters.add(Timestamp.valueOf(fromDate.atStartOfDay()));
+        }
+        if (toDate != null) {
+            conditions.add("created_at < ?");
+            parameters.add(Timestamp.valueOf(toDate.plusDays(1).atStartOfDay()));
+        }
+        if (ticketNumber != null) {
+            conditions.add("ticket_number LIKE ?");
+            parameters.add(ticketNumber.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+        }
+        if (afterId != null) {
+            String comparison = ascending ? ">" : "<";
+            if (sortColumn == SortColumn.ID) {
+                conditions.add("id " + comparison + " ?");
+                parameters.add(afterId);
+            } else {
+                String column = sortColumn.getColumn();
+                conditions.add("(" + column + " " + comparison + " ? OR (" + column + " = ? AND id " + comparison + " ?))");
+                parameters.add(afterSortValue);
+                parameters.add(afterSortValue);
+                parameters.add(afterId);
+            }
+        }
+        if (!conditions.isEmpty()) {
+            sql.append(" WHERE ").append(String.join(" AND ", conditions));
+        }
+    }
+
+    // id breaks ties so every row has exactly one place in the order
+    String orderBy() {
+        String direction = ascending ? " ASC" : " DESC";
+        if (sortColumn == SortColumn.ID) {
+            return " ORDER BY id" + direction;
+        }
+        return " ORDER BY " + sortColumn.getColumn() + direction + ", id" + direction;
+    }
+
+    static void bind(PreparedStatement statement, List<Object> parameters) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            statement.setObject(i + 1, parameters.get(i));
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package dorsu.jareth.queue;
+
+import dorsu.jareth.metrics.Metrics;
+import dorsu.jareth.util.AppConfig;
+import dorsu.jareth.util.DatabaseConnection;
+import dorsu.jareth.util.Loggers;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Hands out ticket numbers per office and per day. Numbers come from an
+ * in-memory counter; the database is only touched to reserve the next block
+ * of numbers in the ticket_sequences table, so two kiosks can never receive
+ * the same number and issuing a ticket costs no table scan. Numbers left
+ * unused in a block when the server stops are skipped, never reused.
+ *
+ * The next block is reserved by {@link #reserveAhead(int)} once the current
+ * one runs low, which the engine calls before locking the office, so the
+ * reservation's database round trip never holds up the office's queue.
+ * {@link #next(int)} itself never reserves: with no number left, e.g. the
+ * day changed since the last reservation, it returns 0 and the engine
+ * reserves outside the lock and tries again.
+ *
+ * The numbers still reserved are saved with every queue snapshot and taken
+ * back by {@link #restore}, so a server restarted while MySQL is down keeps
+ * issuing until they run out.
+ */
+public class TicketNumberAllocator {
+
+    private static final Logger LOG = Loggers.db(TicketNumberAllocator.class);
+
+    private final ConcurrentMap<SequenceKey, OfficeSequence> sequences = new ConcurrentHashMap<>();
+    private final int blockSize = AppConfig.getInt("queue.sequenceBlockSize", 50);
+    // Numbers left in the current block when the next one is reserved
+    private final int lowWater = Math.max(1, blockSize / 10);
+
+    // The ticket_sequences table itself is created by SchemaMigrator
+    public void initialize() {
+        sequences.clear();
+    }
+
+    // The office's next number, or 0 when none is reserved; never waits on the database
+    public int next(int officeId) {
+        return sequenceFor(officeId).next();
+    }
+
+    /**
+     * Reserves the office's next block if today's current one is running
+     * low. A failed reservation is only an error once the current block has
+     * no numbers left; until then it is retried on the next ticket.
+     */
+    public void reserveAhead(int officeId) throws SQLException {
+        OfficeSequence sequence = sequenceFor(officeId);
+        try {
+            sequence.reserveAhead();
+        } catch (SQLException e) {
+            if (sequence.block.remaining() <= 0) {
+                throw e;
+            }
+            LOG.warn("Could not reserve the next ticket numbers for office {}, {} left: {}", officeId, sequence.block.remaining(), e.getMessage());
+        }
+    }
+
+    // Today's numbers the office has reserved but not handed out yet, in the order they will be used
+    public List<NumberRange> getUnusedNumbers(int officeId) {
+        OfficeSequence sequence = sequences.get(new SequenceKey(officeId, LocalDate.now()));
+        return sequence != null ? sequence.unused() : List.of();
+    }
+
+    /**
+     * Takes back the numbers an office had reserved when its snapshot was
+     * written. lastIssued is the highest number the event log shows as
+     * handed out since, or 0; numbers up to it are skipped. Ranges from an
+     * earlier day are dropped, since numbers restart every day.
+     */
+    public void restore(int officeId, List<NumberRange> unused, int lastIssued) {
+        LocalDate today = LocalDate.now();
+        OfficeSequence sequence = new OfficeSequence(new SequenceKey(officeId, today));
+        for (NumberRange range : unused) {
+            if (!range.date.equals(today)) {
+                continue;
+            }
+            if (sequence.block.remaining() <= 0) {
+                sequence.block = new Block(range.next, range.end);
+            } else {
+                sequence.spare = new Block(range.next, range.end);
+            }
+        }
+        sequence.skipPast(lastIssued);
+        sequences.put(sequence.key, sequence);
+    }
+
+    // The number in "Ticket-N", or 0 for anything else
+    public static int numberOf(String ticketNumber) {
+        try {
+            return ticketNumber.startsWith("Ticket-") ? Integer.parseInt(ticketNumber.substring(7)) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private OfficeSequence sequenceFor(int officeId) {
+        LocalDate today = LocalDate.now();
+        SequenceKey key = new SequenceKey(officeId, today);
+        OfficeSequence sequence = sequences.get(key);
+        if (sequence == null) {
+            // First ticket of the day for this office; yesterday's counters are no longer needed
+            sequences.keySet().removeIf(existing -> existing.date.isBefore(today));
+            sequence = sequences.computeIfAbsent(key, OfficeSequence::new);
+        }
+        return sequence;
+    }
+
+    private Block reserveBlock(SequenceKey key) throws SQLException {
+        long startNanos = System.nanoTime();
+        try (Connection connection = DatabaseConnection.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                try (PreparedStatement insert = connection.prepareStatement("INSERT IGNORE INTO ticket_sequences (office_id, seq_date, next_value) VALUES (?, ?, 1)")) {
+                    insert.setInt(1, key.officeId);
+                    insert.setDate(2, Date.valueOf(key.date));
+                    insert.executeUpdate();
+                }
+                int start;
+                try (PreparedStatement select = connection.prepareStatement("SELECT next_value FROM ticket_sequences WHERE office_id = ? AND seq_date = ? FOR UPDATE")) {
+                    select.setInt(1, key.officeId);
+                    select.setDate(2, Date.valueOf(key.date));
+                    try (ResultSet rs = select.executeQuery()) {
+                        rs.next();
+                        start = rs.getInt("next_value");
+                    }
+                }
+                try (PreparedStatement update = connection.prepareStatement("UPDATE ticket_sequences SET next_value = ? WHERE office_id = ? AND seq_date = ?")) {
+                    update.setInt(1, start + blockSize);
+                    update.setInt(2, key.officeId);
+                    update.setDate(3, Date.valueOf(key.date));
+                    update.executeUpdate();
+                }
+                connection.commit();
+                return new Block(start, start + blockSize);
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } finally {
+            Metrics.database("reserve_numbers").recordSince(startNanos);
+        }
+    }
+
+    private class OfficeSequence {
+
+        private final SequenceKey key;
+        private volatile Block block = new Block(0, 0);
+        // Reserved ahead, taken over when the current block runs out; read without the lock by snapshots
+        private volatile Block spare;
+        // One reservation at a time; held across the database round trip, so never taken under the office lock.
+        // Not a monitor, so a virtual thread waiting on the database here does not pin its carrier.
+        private final ReentrantLock reserving = new ReentrantLock();
+        // Guards moving the spare into place, which is all next() waits for
+        private final ReentrantLock swapping = new ReentrantLock();
+
+        OfficeSequence(SequenceKey key) {
+            this.key = key;
+        }
+
+        void reserveAhead() throws SQLException {
+            if (block.remaining() > lowWater) {
+                return;
+            }
+            reserving.lock();
+            try {
+                if (spare == null && block.remaining() <= lowWater) {
+                    Block reserved = reserveBlock(key);
+                    swapping.lock();
+                    try {
+                        spare = reserved;
+                    } finally {
+                        swapping.unlock();
+                    }
+                }
+            } finally {
+                reserving.unlock();
+            }
+        }
+
+        int next() {
+            while (true) {
+                Block current = block;
+                int value = current.cursor.getAndIncrement();
+                if (value < current.end) {
+                    return value;
+                }
+                swapping.lock();
+                try {
+                    if (block == current) {
+                        if (spare == null) {
+                            return 0;
+                        }
+                        block = spare;
+                        spare = null;
+                    }
+                } finally {
+                    swapping.unlock();
+                }
+            }
+        }
+
+        // Called under the office lock, so the current block does not move while it is read
+        List<NumberRange> unused() {
+            List<NumberRange> ranges = new ArrayList<>(2);
+            Block current = block;
+            int next = current.cursor.get();
+            if (next < current.end) {
+                ranges.add(new NumberRange(key.date, next, current.end));
+            }
+            Block reserved = spare;
+            if (reserved != null) {
+                ranges.add(new NumberRange(key.date, reserved.cursor.get(), reserved.end));
+            }
+            return ranges;
+        }
+
+        // Only used while restoring, before any ticket is issued
+        void skipPast(int number) {
+            if (spare != null && number >= block.end) {
+                block = spare;
+                spare = null;
+            }
+            block.cursor.accumulateAndGet(number + 1, Math::max);
+        }
+    }
+
+    /**
+     * Numbers from next up to, not including, end that were reserved in
+     * ticket_sequences for one office and day but not handed out yet.
+     */
+    public static class NumberRange {
+
+        private final LocalDate date;
+        private final int next;
+        private final int end;
+
+        public NumberRange(LocalDate date, int next, int end) {
+            this.date = date;
+            this.next = next;
+            this.end = end;
+        }
+
+        public LocalDate getDate() {
+            return date;
+        }
+
+        public int getNext() {
+            return next;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+    }
+
+    private static class Block {
+
+        private final AtomicInteger cursor;
+        private final int end;
+
+        Block(int start, int end) {
+            this.cursor = new AtomicInteger(start);
+            this.end = end;
+        }
+
+        int remaining() {
+            return end - cursor.get();
+        }
+    }
+
+    private static class SequenceKey {
+
+        private final int officeId;
+        private final LocalDate date;
+
+        SequenceKey(int officeId, LocalDate date) {
+            this.officeId = officeId;
+            this.date = date;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SequenceKey)) {
+                return false;
+            }
+            SequenceKey other = (SequenceKey) o;
+            return officeId == other.officeId && date.equals(other.date);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(officeId, date);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package dorsu.jareth.queue;
+
+import dorsu.jareth.metrics.Metrics;
+import dorsu.jareth.util.AppConfig;
+import dorsu.jareth.util.Loggers;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes ticket files into tickets/ on a background thread so issuing a
+ * ticket never waits for the disk. Jobs go through a bounded queue
+ * (ticket.printQueueCapacity); when the disk falls that far behind,
+ * {@link #submit} turns the ticket away at once instead of holding up the
+ * issuing worker, and the drop is counted in queue_printer_dropped_total.
+ */
+public class TicketPrinter {
+
+    private static final Logger LOG = Loggers.server(TicketPrinter.class);
+
+    private static final LongAdder DROPPED = Metrics.counter("queue_printer_dropped_total", "Issued tickets not printed because the printer queue was full.");
+
+    private static final DateTimeFormatter ISSUED_FORMAT = DateTimeFormatter.ofPattern("MMMM dd, yyyy hh:mm a");
+
+    private final Path ticketsDirectory;
+    private final BlockingQueue<PrintJob> jobs;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    public TicketPrinter() {
+        this(Paths.get(AppConfig.get("ticket.directory", "tickets")), AppConfig.getInt("ticket.printQueueCapacity", 1024));
+    }
+
+    public TicketPrinter(Path ticketsDirectory, int capacity) {
+        this.ticketsDirectory = ticketsDirectory;
+        this.jobs = new ArrayBlockingQueue<>(capacity);
+        this.writerThread = new Thread(this::writeLoop, "ticket-printer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    // Ticket numbers restart daily, so files are named after the unique row id
+    public static String fileName(QueuedTicket ticket) {
+        return "ticket_" + ticket.getId() + ".txt";
+    }
+
+    /**
+     * Queues a ticket file without waiting. onPrinted runs on the writer
+     * thread once the file is on disk. Returns false if the queue is full or
+     * the printer is shut down.
+     */
+    public boolean submit(QueuedTicket ticket, String officeName, Consumer<Path> onPrinted) {
+        if (running && jobs.offer(new PrintJob(ticket, officeName, onPrinted))) {
+            return true;
+        }
+        DROPPED.increment();
+        return false;
+    }
+
+    public int getBacklog() {
+        return jobs.size();
+    }
+
+    // Writes out anything still queued, then stops the writer thread
+    public void shutdown() {
+        running = false;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        StringBuilder content = new StringBuilder(256);
+        try {
+            Files.createDirectories(ticketsDirectory);
+        } catch (IOException e) {
+            LOG.warn("Could not create the tickets directory: {}", e.getMessage());
+        }
+        while (running || !jobs.isEmpty()) {
+            try {
+                PrintJob job = jobs.poll(200, TimeUnit.MILLISECONDS);
+                if (job != null) {
+                    write(job, content);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Each ticket is its own file, so there is nothing to gain from grouping the writes
+    private void write(PrintJob job, StringBuilder content) {
+        QueuedTicket ticket = job.ticket;
+        content.setLength(0);
+        content.append("Ticket Number: ").append(ticket.getTicketNumber()).append('\n');
+        content.append("Status: PENDING\n");
+        content.append("Issued on: ").append(ticket.getCreatedAt().format(ISSUED_FORMAT)).append('\n');
+        content.append("Office ID: ").append(ticket.getOfficeId()).append('\n');
+        if (job.officeName != null) {
+            content.append("Office Name: ").append(job.officeName).append('\n');
+        }
+        Path file = ticketsDirectory.resolve(fileName(ticket));
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.append(content);
+        } catch (IOException e) {
+            LOG.error("Error generating text file for {}: {}", ticket.getTicketNumber(), e.getMessage());
+            return;
+        }
+        if (job.onPrinted != null) {
+            try {
+                job.onPrinted.accept(file);
+            } catch (RuntimeException e) {
+                LOG.error("Error after printing {}: {}", ticket.getTicketNumber(), e.getMessage());
+            }
+        }
+    }
+
+    private static class PrintJob {
+
+        final QueuedTicket ticket;
+        final String officeName;
+        final Consumer<Path> onPrinted;
+
+        PrintJob(QueuedTicket ticket, String officeName, Consumer<Path> onPrinted) {
+            this.ticket = ticket;
+            this.officeName = officeName;
+            this.onPrinted = onPrinted;
+        }
+    }
+}
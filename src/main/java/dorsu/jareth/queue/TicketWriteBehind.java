@@ -0,0 +1,537 @@
+package dorsu.jareth.queue;
+
+import dorsu.jareth.metrics.Metrics;
+import dorsu.jareth.metrics.Timer;
+import dorsu.jareth.util.AppConfig;
+import dorsu.jareth.util.DatabaseConnection;
+import dorsu.jareth.util.Loggers;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLNonTransientException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes the queue engine's ticket changes to MySQL in batches instead of
+ * one transaction per issue or call. A change is appended to the local
+ * {@link TicketEventLog} before the engine answers the client. The writer
+ * thread then commits everything pending every flushMillis, or as soon as
+ * batchSize changes are waiting. Each commit is one transaction of JDBC
+ * batches, which Connector/J sends as multi-row statements when the URL has
+ * rewriteBatchedStatements=true.
+ *
+ * Every change has a log sequence number. The last one committed is stored
+ * in write_behind_checkpoint in the same transaction, so after a crash the
+ * writer commits exactly the logged changes the database has not seen. The
+ * writer reads that checkpoint on its first flush rather than at startup, so
+ * the engine can come up and keep logging while MySQL is unavailable.
+ *
+ * Log segments are deleted once every change in them is both committed and
+ * covered by the engine's latest {@link QueueStateFile} snapshot.
+ */
+public class TicketWriteBehind {
+
+    private static final Logger LOG = Loggers.db(TicketWriteBehind.class);
+
+    private static final int ISSUED = 1;
+    private static final int SERVED = 2;
+    private static final int REMOVED = 3;
+
+    private static final Timer WRITE_TIMER = Metrics.database("write_batch");
+    private static final LongAdder WRITTEN_CHANGES = Metrics.counter("queue_db_written_changes_total", "Ticket changes committed to MySQL by the write-behind writer.");
+
+    private final TicketEventLog log;
+    private final int batchSize;
+    private final long flushMillis;
+    private final Object lock = new Object();
+    // Logged but not yet committed, in log order
+    private final List<Change> pending = new ArrayList<>();
+    private long lastSequence;
+    // Last sequence committed to MySQL, or -1 until the checkpoint has been read
+    private volatile long committedSequence = -1;
+    // Last sequence the newest snapshot is known to include for every office
+    private long snapshotSequence;
+    private boolean stopping;
+    private Thread writer;
+
+    public TicketWriteBehind() {
+        this.log = new TicketEventLog(Paths.get(AppConfig.get("queue.eventLogDirectory", "data/events")),
+                AppConfig.getInt("queue.eventLogSegmentBytes", 8 * 1024 * 1024),
+                Boolean.parseBoolean(AppConfig.get("queue.eventLogSync", "false")));
+        this.batchSize = Math.max(1, AppConfig.getInt("db.writeBehind.batchSize", 500));
+        this.flushMillis = AppConfig.getLong("db.writeBehind.flushMillis", 200);
+    }
+
+    /**
+     * Receives the changes found in the event log when it is opened, oldest
+     * first, so the engine can bring a restored snapshot up to date.
+     */
+    public interface ReplayTarget {
+
+        void replayIssued(long sequence, QueuedTicket ticket);
+
+        void replayServed(long sequence, QueuedTicket ticket, LocalDateTime calledAt);
+
+        void replayRemoved(long sequence, QueuedTicket ticket);
+
+        // Follows the change a client command made, with the command's idempotency key
+        void replayRequest(long sequence, RecentRequests.Applied request);
+    }
+
+    /**
+     * Opens the event log and hands every change in it to the target. All of
+     * them stay pending until the checkpoint shows which MySQL already has.
+     * New changes are numbered above both the log and usedSequence, the
+     * highest sequence the caller knows was handed out before. Returns the
+     * number of changes read.
+     */
+    public int open(ReplayTarget target, long usedSequence) throws IOException {
+        synchronized (lock) {
+            pending.clear();
+            committedSequence = -1;
+            lastSequence = usedSequence;
+            for (byte[] record : log.open()) {
+                Change change = Change.decode(record);
+                lastSequence = Math.max(lastSequence, change.sequence);
+                pending.add(change);
+                if (target == null) {
+                    continue;
+                }
+                switch (change.kind) {
+                    case ISSUED:
+                        target.replayIssued(change.sequence, change.ticket);
+                        break;
+                    case SERVED:
+                        target.replayServed(change.sequence, change.ticket, change.calledAt);
+                        break;
+                    default:
+                        target.replayRemoved(change.sequence, change.ticket);
+                }
+                if (change.requestId != null) {
+                    target.replayRequest(change.sequence, new RecentRequests.Applied(change.requestId, change.ticket, change.appliedAt));
+                }
+            }
+            return pending.size();
+        }
+    }
+
+    /**
+     * Commits every logged change MySQL has not seen before returning, for
+     * when the engine is about to rebuild its queues from the tickets table.
+     */
+    public void catchUp() throws SQLException {
+        synchronized (lock) {
+            readCheckpoint();
+            lastSequence = Math.max(lastSequence, committedSequence);
+            if (!pending.isEmpty()) {
+                LOG.info("Writing {} logged ticket changes to the database.", pending.size());
+                while (!pending.isEmpty()) {
+                    flush(new ArrayList<>(pending.subList(0, Math.min(pending.size(), batchSize))));
+                    dropCommitted();
+                }
+            }
+        }
+    }
+
+    public void startWriter() {
+        synchronized (lock) {
+            if (writer != null) {
+                return;
+            }
+            stopping = false;
+            writer = new Thread(this::run, "queue-db-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    // Called under an office lock: every change that office has logged so far has at most this sequence
+    public long getLastSequence() {
+        synchronized (lock) {
+            return lastSequence;
+        }
+    }
+
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    // The engine has durably snapshotted every change up to this sequence
+    public void setSnapshotSequence(long sequence) {
+        synchronized (lock) {
+            snapshotSequence = Math.max(snapshotSequence, sequence);
+        }
+    }
+
+    // Called under the engine's office lock, so each office's changes reach the log in order.
+    // requestId is the idempotency key of the command that made the change, if it had one.
+    public void issued(QueuedTicket ticket, String requestId) {
+        submit(new Change(ISSUED, ticket, null, null, null, requestId, System.currentTimeMillis()));
+    }
+
+    public void served(QueuedTicket ticket, LocalDateTime calledAt, QueuedTicket previous, LocalDateTime previousCalledAt, String requestId) {
+        submit(new Change(SERVED, ticket, calledAt, previous, previousCalledAt, requestId, System.currentTimeMillis()));
+    }
+
+    public void removed(QueuedTicket ticket, String requestId) {
+        submit(new Change(REMOVED, ticket, null, null, null, requestId, System.currentTimeMillis()));
+    }
+
+    // Commits what is pending and stops; anything that still fails stays in the log for the next start
+    public void shutdown() throws InterruptedException {
+        Thread thread;
+        synchronized (lock) {
+            stopping = true;
+            lock.notifyAll();
+            thread = writer;
+            writer = null;
+        }
+        if (thread != null) {
+            thread.join(10000);
+            if (thread.isAlive()) {
+                LOG.warn("Queue engine did not finish writing to the database in time.");
+            }
+        }
+        synchronized (lock) {
+            deleteCoveredSegments();
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            LOG.error("Error closing the ticket event log: {}", e.getMessage());
+        }
+    }
+
+    private void submit(Change change) {
+        synchronized (lock) {
+            change.sequence = ++lastSequence;
+            try {
+                log.append(change.sequence, change.encode());
+            } catch (IOException e) {
+                // Still written to MySQL with the next batch; only crash safety is lost for this change
+                LOG.error("Error logging {}: {}", change.ticket.getTicketNumber(), e.getMessage());
+            }
+            pending.add(change);
+            if (pending.size() >= batchSize) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<Change> batch;
+            synchronized (lock) {
+                try {
+                    while (pending.isEmpty() && !stopping) {
+                        lock.wait();
+                    }
+                    // Give the batch flushMillis to fill up, unless it is already full
+                    long deadline = System.currentTimeMillis() + flushMillis;
+                    long remaining = flushMillis;
+                    while (pending.size() < batchSize && !stopping && remaining > 0) {
+                        lock.wait(remaining);
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    stopping = true;
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(pending.subList(0, Math.min(pending.size(), batchSize)));
+            }
+            SQLException failure = null;
+            try {
+                if (committedSequence < 0) {
+                    readCheckpoint();
+                    batch.removeIf(change -> change.sequence <= committedSequence);
+                }
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+            } catch (SQLException e) {
+                failure = e;
+                LOG.error("Error writing {} ticket changes to the database: {}", batch.size(), e.getMessage());
+            }
+            synchronized (lock) {
+                dropCommitted();
+                deleteCoveredSegments();
+            }
+            if (failure != null) {
+                if (isStopping()) {
+                    return;
+                }
+                pause();
+            }
+        }
+    }
+
+    private boolean isStopping() {
+        synchronized (lock) {
+            return stopping;
+        }
+    }
+
+    // Waits a little before retrying a failed batch, e.g. while MySQL restarts
+    private void pause() {
+        try {
+            Thread.sleep(Math.max(1000, flushMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            synchronized (lock) {
+                stopping = true;
+            }
+        }
+    }
+
+    // Called with the lock held; part of a failed batch may have been committed one change at a time
+    private void dropCommitted() {
+        while (!pending.isEmpty() && pending.get(0).sequence <= committedSequence) {
+            pending.remove(0);
+        }
+    }
+
+    // Called with the lock held
+    private void deleteCoveredSegments() {
+        log.deleteUpTo(Math.min(snapshotSequence, committedSequence));
+    }
+
+    /**
+     * Writes a batch, or when MySQL rejects it outright (e.g. a ticket for
+     * an office that was deleted) writes it one change at a time and skips
+     * the changes that are rejected, so one bad change cannot hold back
+     * every change after it. Connection trouble is thrown to be retried.
+     */
+    private void flush(List<Change> batch) throws SQLException {
+        try {
+            write(batch);
+            return;
+        } catch (SQLException e) {
+            if (!isRejected(e)) {
+                throw e;
+            }
+            if (batch.size() == 1) {
+                skip(batch.get(0), e);
+                return;
+            }
+        }
+        for (Change change : batch) {
+            try {
+                write(List.of(change));
+            } catch (SQLException e) {
+                if (!isRejected(e)) {
+                    throw e;
+                }
+                skip(change, e);
+            }
+        }
+    }
+
+    // Moves the checkpoint past a change MySQL will never accept
+    private void skip(Change change, SQLException reason) throws SQLException {
+        LOG.warn("Dropping the change to {} that MySQL rejected: {}", change.ticket.getTicketNumber(), reason.getMessage());
+        try (Connection connection = DatabaseConnection.getConnection();
+             PreparedStatement checkpoint = connection.prepareStatement("UPDATE write_behind_checkpoint SET journal_seq = ? WHERE id = 1")) {
+            checkpoint.setLong(1, change.sequence);
+            checkpoint.executeUpdate();
+        }
+        committedSequence = change.sequence;
+    }
+
+    // Constraint violations, bad data and the like fail the same way however often they are retried
+    private static boolean isRejected(SQLException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLNonTransientConnectionException) {
+                return false;
+            }
+            if (cause instanceof SQLNonTransientException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void write(List<Change> batch) throws SQLException {
+        long start = System.nanoTime();
+        try (Connection connection = DatabaseConnection.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO tickets (id, ticket_number, status, created_at, office_id) VALUES (?, ?, 'PENDING', ?, ?)");
+                 // Conditional, so the row is claimed at most once even if something else served it first
+                 PreparedStatement serve = connection.prepareStatement("UPDATE tickets SET status = 'SERVED', called_at = ? WHERE id = ? AND status = 'PENDING'");
+                 PreparedStatement delete = connection.prepareStatement("DELETE FROM tickets WHERE id = ? AND status = 'PENDING'");
+                 PreparedStatement checkpoint = connection.prepareStatement("UPDATE write_behind_checkpoint SET journal_seq = ? WHERE id = 1")) {
+                boolean hasInserts = false;
+                List<Change> served = new ArrayList<>();
+                List<Change> removed = new ArrayList<>();
+                DailyStatsRollup rollup = new DailyStatsRollup();
+                for (Change change : batch) {
+                    QueuedTicket ticket = change.ticket;
+                    switch (change.kind) {
+                        case ISSUED:
+                            insert.setInt(1, ticket.getId());
+                            insert.setString(2, ticket.getTicketNumber());
+                            insert.setTimestamp(3, Timestamp.valueOf(ticket.getCreatedAt()));
+                            insert.setInt(4, ticket.getOfficeId());
+                            insert.addBatch();
+                            hasInserts = true;
+                            rollup.recordIssued(ticket);
+                            break;
+                        case SERVED:
+                            serve.setTimestamp(1, Timestamp.valueOf(change.calledAt));
+                            serve.setInt(2, ticket.getId());
+                            serve.addBatch();
+                            served.add(change);
+                            break;
+                        default:
+                            delete.setInt(1, ticket.getId());
+                            delete.addBatch();
+                            removed.add(change);
+                    }
+                }
+                // Inserts first: a ticket issued and called within one batch must exist before it is updated
+                if (hasInserts) {
+                    insert.executeBatch();
+                }
+                if (!served.isEmpty()) {
+                    int[] counts = serve.executeBatch();
+                    for (int i = 0; i < counts.length; i++) {
+                        Change change = served.get(i);
+                        if (counts[i] == 0) {
+                            LOG.warn("{} was no longer pending; not marking it served again.", change.ticket.getTicketNumber());
+                            continue;
+                        }
+                        rollup.recordServed(change.ticket, Duration.between(change.ticket.getCreatedAt(), change.calledAt).getSeconds());
+                        // The same interval the engine's wait estimate measured, from the office's previous call by any counter
+                        long interval = ServiceRateEstimator.callInterval(change.previousCalledAt, change.ticket.getCreatedAt(), change.calledAt);
+                        if (interval > 0) {
+                            rollup.recordCallInterval(change.ticket, Math.round(interval / 1000.0));
+                        }
+                    }
+                }
+                if (!removed.isEmpty()) {
+                    int[] counts = delete.executeBatch();
+                    for (int i = 0; i < counts.length; i++) {
+                        if (counts[i] == 0) {
+                            LOG.warn("{} was no longer pending; not removing it.", removed.get(i).ticket.getTicketNumber());
+                        } else {
+                            rollup.recordRemoved(removed.get(i).ticket);
+                        }
+                    }
+                }
+                rollup.write(connection);
+                checkpoint.setLong(1, batch.get(batch.size() - 1).sequence);
+                checkpoint.executeUpdate();
+                connection.commit();
+                committedSequence = batch.get(batch.size() - 1).sequence;
+                WRITTEN_CHANGES.add(batch.size());
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } finally {
+            WRITE_TIMER.recordSince(start);
+        }
+    }
+
+    private void readCheckpoint() throws SQLException {
+        try (Connection connection = DatabaseConnection.getConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT journal_seq FROM write_behind_checkpoint WHERE id = 1")) {
+            committedSequence = rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static class Change {
+
+        final int kind;
+        final QueuedTicket ticket;
+        final LocalDateTime calledAt;
+        final QueuedTicket previous;
+        final LocalDateTime previousCalledAt;
+        final String requestId;
+        // Wall-clock milliseconds, for the age of the request in the dedup window
+        final long appliedAt;
+        long sequence;
+
+        Change(int kind, QueuedTicket ticket, LocalDateTime calledAt, QueuedTicket previous, LocalDateTime previousCalledAt,
+                String requestId, long appliedAt) {
+            this.kind = kind;
+            this.ticket = ticket;
+            this.calledAt = calledAt;
+            this.previous = previous;
+            this.previousCalledAt = previousCalledAt;
+            this.requestId = requestId;
+            this.appliedAt = appliedAt;
+        }
+
+        byte[] encode() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeLong(sequence);
+                out.writeByte(kind);
+                ticket.writeTo(out);
+                if (kind == SERVED) {
+                    out.writeUTF(calledAt.toString());
+                    out.writeBoolean(previous != null);
+                    if (previous != null) {
+                        previous.writeTo(out);
+                        out.writeUTF(previousCalledAt.toString());
+                    }
+                }
+                out.writeBoolean(requestId != null);
+                if (requestId != null) {
+                    out.writeUTF(requestId);
+                    out.writeLong(appliedAt);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        static Change decode(byte[] record) throws IOException {
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+                long sequence = in.readLong();
+                int kind = in.readByte();
+                QueuedTicket ticket = QueuedTicket.readFrom(in);
+                LocalDateTime calledAt = null;
+                QueuedTicket previous = null;
+                LocalDateTime previousCalledAt = null;
+                if (kind == SERVED) {
+                    calledAt = LocalDateTime.parse(in.readUTF());
+                    previous = in.readBoolean() ? QueuedTicket.readFrom(in) : null;
+                    previousCalledAt = previous != null ? LocalDateTime.parse(in.readUTF()) : null;
+                }
+                // Records logged before idempotency keys were kept end here
+                String requestId = null;
+                long appliedAt = 0;
+                if (in.available() > 0 && in.readBoolean()) {
+                    requestId = in.readUTF();
+                    appliedAt = in.readLong();
+                }
+                Change change = new Change(kind, ticket, calledAt, previous, previousCalledAt, requestId, appliedAt);
+                change.sequence = sequence;
+                return change;
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package dorsu.jareth.queue;
 
+import dorsu.jareth.util.DatabaseConnection;
+import dorsu.jareth.util.Loggers;
 import javafx.application.Application;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -15,15 +17,13 @@ import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
+import org.apache.logging.log4j.Logger;
 
 import static javafx.application.Application.launch;
 
 public class TicketsCharts extends Application {
 
-    // Database connection details (replace with your actual credentials)
-    private static final String DB_URL = "jdbc:mysql://localhost:3306/queue_management";
-    private static final String DB_USER = "root";
-    private static final String DB_PASSWORD = "";
+    private static final Logger LOG = Loggers.ui(TicketsCharts.class);
 
     @Override
     public void start(Stage stage) throws Exception {
@@ -54,15 +54,18 @@ public class TicketsCharts extends Application {
 
     private Map<LocalDate, Map<String, Map<String, Integer>>> loadDataFromDatabase() {
         Map<LocalDate, Map<String, Map<String, Integer>>> data = new TreeMap<>();
-        try (Connection connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD); Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(
-                "SELECT DATE(t.created_at) AS created_date, o.name AS office_name, COUNT(*) AS count, t.status "
-                + "FROM tickets t JOIN offices o ON t.office_id = o.id "
-                + "GROUP BY created_date, office_name, t.status"
+        // Reads the pre-aggregated rollup, which stays small no matter how many tickets there are
+        try (Connection connection = DatabaseConnection.getConnection(); Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(
+                "SELECT stat_date, office_id, status, ticket_count "
+                + "FROM ticket_daily_stats WHERE ticket_count > 0"
         )) {
             while (resultSet.next()) {
-                LocalDate date = LocalDate.parse(resultSet.getString("created_date"), DateTimeFormatter.ISO_DATE);
-                String officeName = resultSet.getString("office_name");
-                int count = resultSet.getInt("count");
+                LocalDate date = resultSet.getDate("stat_date").toLocalDate();
+                String officeName = OfficeCache.getName(resultSet.getInt("office_id"));
+                if (officeName == null) {
+                    continue;
+                }
+                int count = resultSet.getInt("ticket_count");
                 String status = resultSet.getString("status");
 
                 Map<String, Map<String, Integer>> dailyData = data.computeIfAbsent(date, k -> new HashMap<>());
@@ -70,8 +73,7 @@ public class TicketsCharts extends Application {
                 officeData.put(status, officeData.getOrDefault(status, 0) + count);
             }
         } catch (SQLException e) {
-            System.err.println("Database error: " + e.getMessage());
-            e.printStackTrace();
+            LOG.error("Database error: {}", e.getMessage(), e);
             return new TreeMap<>(); //Return empty map in case of error
         }
         return data;
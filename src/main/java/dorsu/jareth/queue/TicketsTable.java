@@ -1,129 +1,259 @@
 package dorsu.jareth.queue;
 
 
-import dorsu.jareth.util.DatabaseConnection;
+import dorsu.jareth.queue.TicketHistoryQuery.SortColumn;
+import dorsu.jareth.util.AppConfig;
+import dorsu.jareth.util.Loggers;
 import javafx.application.Application;
-import javafx.beans.property.SimpleObjectProperty;
-import javafx.beans.property.SimpleStringProperty;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
+import javafx.geometry.Insets;
 import javafx.scene.Node;
 import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.DatePicker;
+import javafx.scene.control.Label;
 import javafx.scene.control.Pagination;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
+import javafx.scene.control.TextField;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
 import javafx.stage.Stage;
+import javafx.util.StringConverter;
 
-import java.sql.*;
+import java.sql.SQLException;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.logging.log4j.Logger;
 
 import static javafx.application.Application.launch;
 
 public class TicketsTable extends Application {
 
+    private static final Logger LOG = Loggers.ui(TicketsTable.class);
+
     private final static int rowsPerPage = 20;
+    private static final DateTimeFormatter CREATED_AT_FORMAT = DateTimeFormatter.ofPattern("MMMM dd, yyyy hh:mm a");
     private TableView<Ticket> table = createTable();
-    private ObservableList<Ticket> data = FXCollections.observableArrayList();
+    private static final int cachedPages = AppConfig.getInt("history.cachedPages", 10);
+    private TicketHistoryPager pager = new TicketHistoryPager(new TicketHistoryQuery(), rowsPerPage, cachedPages);
+    private Pagination pagination;
 
-    // Database connection details (replace with your actual credentials)
-    private static final String DB_URL = "jdbc:mysql://localhost:3306/queue_management";
-    private static final String DB_USER = "root";
-    private static final String DB_PASSWORD = "";
+    private ComboBox<Office> officeFilter;
+    private ComboBox<String> statusFilter;
+    private DatePicker fromDatePicker;
+    private DatePicker toDatePicker;
+    private TextField ticketSearchField;
 
     private TableView<Ticket> createTable() {
         TableView<Ticket> table = new TableView<>();
 
         TableColumn<Ticket, Integer> idColumn = new TableColumn<>("ID");
-        idColumn.setCellValueFactory(p -> new SimpleObjectProperty<>(p.getValue().id.get()));
+        idColumn.setCellValueFactory(p -> new ReadOnlyObjectWrapper<>(p.getValue().getId()));
         idColumn.setPrefWidth(150);
+        idColumn.setUserData(SortColumn.ID);
 
         TableColumn<Ticket, String> ticketNumberColumn = new TableColumn<>("Ticket Number");
-        ticketNumberColumn.setCellValueFactory(p -> p.getValue().ticketNumber);
+        ticketNumberColumn.setCellValueFactory(p -> new ReadOnlyStringWrapper(p.getValue().getTicketNumber()));
         ticketNumberColumn.setPrefWidth(150);
+        ticketNumberColumn.setUserData(SortColumn.TICKET_NUMBER);
 
         TableColumn<Ticket, String> statusColumn = new TableColumn<>("Status");
-        statusColumn.setCellValueFactory(p -> p.getValue().status);
+        statusColumn.setCellValueFactory(p -> new ReadOnlyStringWrapper(p.getValue().getStatus()));
         statusColumn.setPrefWidth(250);
+        statusColumn.setUserData(SortColumn.STATUS);
 
         TableColumn<Ticket, String> createdAtColumn = new TableColumn<>("Created At");
-        createdAtColumn.setCellValueFactory(p -> p.getValue().formattedCreatedAt);
+        createdAtColumn.setCellValueFactory(p -> new ReadOnlyStringWrapper(p.getValue().getCreatedAt().format(CREATED_AT_FORMAT)));
         createdAtColumn.setPrefWidth(250);
+        createdAtColumn.setUserData(SortColumn.CREATED_AT);
 
         TableColumn<Ticket, String> officeNameColumn = new TableColumn<>("Office Name");
-        officeNameColumn.setCellValueFactory(p -> new SimpleStringProperty(p.getValue().officeName));
+        officeNameColumn.setCellValueFactory(p -> new ReadOnlyStringWrapper(p.getValue().getOfficeName()));
         officeNameColumn.setPrefWidth(250); // Adjust width as needed
+        officeNameColumn.setSortable(false); // Use the office filter instead
 
         table.getColumns().addAll(idColumn, ticketNumberColumn, statusColumn, createdAtColumn, officeNameColumn);
+        // Clicking a header re-runs the query in the database instead of sorting only the rows on this page
+        table.setSortPolicy(t -> {
+            if (pagination != null) {
+                runQuery();
+            }
+            return true;
+        });
         return table;
     }
 
+    private HBox createFilterBar() {
+        officeFilter = new ComboBox<>();
+        officeFilter.getItems().add(null);
+        officeFilter.getItems().addAll(OfficeCache.getAll());
+        officeFilter.setConverter(new StringConverter<Office>() {
+            @Override
+            public String toString(Office office) {
+                return office == null ? "All offices" : office.getName();
+            }
+
+            @Override
+            public Office fromString(String string) {
+                return null;
+            }
+        });
+        officeFilter.setValue(null);
+
+        statusFilter = new ComboBox<>(FXCollections.observableArrayList("All statuses", "pending", "served"));
+        statusFilter.setValue("All statuses");
+
+        fromDatePicker = new DatePicker();
+        fromDatePicker.setPromptText("From");
+        toDatePicker = new DatePicker();
+        toDatePicker.setPromptText("To");
+
+        ticketSearchField = new TextField();
+        ticketSearchField.setPromptText("Ticket number");
+        ticketSearchField.setOnAction(e -> runQuery());
+
+        Button searchButton = new Button("Search");
+        searchButton.setOnAction(e -> runQuery());
+
+        Button clearButton = new Button("Clear");
+        clearButton.setOnAction(e -> {
+            officeFilter.setValue(null);
+            statusFilter.setValue("All statuses");
+            fromDatePicker.setValue(null);
+            toDatePicker.setValue(null);
+            ticketSearchField.clear();
+            runQuery();
+        });
+
+        HBox filterBar = new HBox(8, officeFilter, statusFilter, fromDatePicker, toDatePicker, ticketSearchField, searchButton, clearButton);
+        filterBar.setPadding(new Insets(10));
+        return filterBar;
+    }
+
+    private TicketHistoryQuery buildQuery() {
+        TicketHistoryQuery query = new TicketHistoryQuery()
+                .withOfficeId(officeFilter.getValue() != null ? officeFilter.getValue().getId() : null)
+                .withStatus("All statuses".equals(statusFilter.getValue()) ? null : statusFilter.getValue())
+                .withDateRange(fromDatePicker.getValue(), toDatePicker.getValue())
+                .withTicketNumber(ticketSearchField.getText());
+        if (!table.getSortOrder().isEmpty()) {
+            TableColumn<Ticket, ?> column = table.getSortOrder().get(0);
+            query.withSort((SortColumn) column.getUserData(), column.getSortType() == TableColumn.SortType.ASCENDING);
+        }
+        return query;
+    }
+
+    // Starts over with a fresh pager for the current filters and sort order
+    private void runQuery() {
+        pager.close();
+        pager = new TicketHistoryPager(buildQuery(), rowsPerPage, cachedPages);
+        refreshPageCount(pager);
+        if (pagination.getCurrentPageIndex() == 0) {
+            pagination.setPageFactory(this::createPage);
+        } else {
+            pagination.setCurrentPageIndex(0);
+        }
+    }
+
+    private void refreshPageCount(TicketHistoryPager countedPager) {
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return countedPager.countPages();
+            } catch (SQLException e) {
+                LOG.error("Error counting tickets: {}", e.getMessage());
+                return 1;
+            }
+        }).thenAccept(pageCount -> Platform.runLater(() -> {
+            if (pager == countedPager) {
+                pagination.setPageCount(pageCount);
+            }
+        }));
+    }
+
+    // Shows the page straight from the cache when it is there, otherwise loads it in the background
     private Node createPage(int pageIndex) {
-        int fromIndex = pageIndex * rowsPerPage;
-        int toIndex = Math.min(fromIndex + rowsPerPage, data.size());
-        table.setItems(FXCollections.observableArrayList(data.subList(fromIndex, toIndex)));
+        TicketHistoryPager pager = this.pager;
+        List<Ticket> page = pager.getCachedPage(pageIndex);
+        if (page != null) {
+            table.setItems(FXCollections.observableArrayList(page));
+            pager.prefetchAround(pageIndex);
+        } else {
+            table.setItems(FXCollections.observableArrayList());
+            table.setPlaceholder(new Label("Loading tickets..."));
+            pager.loadPageAsync(pageIndex).whenComplete((loaded, error) -> Platform.runLater(() -> {
+                if (error != null) {
+                    LOG.error("Error fetching data from database: {}", error.getMessage());
+                    table.setPlaceholder(new Label("Could not load tickets."));
+                } else if (this.pager == pager && pagination.getCurrentPageIndex() == pageIndex) {
+                    table.setItems(FXCollections.observableArrayList(loaded));
+                    pager.prefetchAround(pageIndex);
+                }
+            }));
+        }
         return new BorderPane(table);
     }
 
     @Override
     public void start(Stage stage) throws Exception {
-        fetchDataFromDatabase();
-
-        Pagination pagination = new Pagination((data.size() + rowsPerPage - 1) / rowsPerPage, 0);
+        pagination = new Pagination(1, 0);
         pagination.setPageFactory(this::createPage);
+        refreshPageCount(pager);
 
-        Scene scene = new Scene(new BorderPane(pagination), 1020, 600);
+        BorderPane root = new BorderPane(pagination);
+        root.setTop(createFilterBar());
+        Scene scene = new Scene(root, 1020, 600);
         stage.setScene(scene);
         stage.setTitle("Queue Management System - Ticket Table");
+        stage.setOnHidden(e -> pager.close());
         stage.show();
     }
 
-    private void fetchDataFromDatabase() {
-        try (Connection connection = DatabaseConnection.getConnection(); Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(
-                "SELECT t.id, t.ticket_number, t.status, t.created_at, o.name AS office_name "
-                + "FROM tickets t JOIN offices o ON t.office_id = o.id"
-        )) {
-
-            while (resultSet.next()) {
-                int id = resultSet.getInt("id");
-                String ticketNumber = resultSet.getString("ticket_number");
-                String status = resultSet.getString("status");
-                Timestamp createdAtTimestamp = resultSet.getTimestamp("created_at");
-                LocalDateTime createdAt = LocalDateTime.ofInstant(createdAtTimestamp.toInstant(), ZoneId.systemDefault());
-                String officeName = resultSet.getString("office_name");
-                data.add(new Ticket(id, ticketNumber, status, createdAt, officeName));
-            }
-        } catch (SQLException e) {
-            System.err.println("Error fetching data from database: " + e.getMessage());
-        }
-    }
-
     public static void main(String[] args) throws Exception {
         launch(args);
     }
 
+    // One history row; plain fields so a page of them stays small in memory
     public static class Ticket {
 
-        public SimpleObjectProperty<Integer> id;
-        public SimpleStringProperty ticketNumber;
-        public SimpleStringProperty status;
-        public LocalDateTime createdAt;
-        public SimpleStringProperty formattedCreatedAt;
-        public String officeName; // Added officeName field
+        private final int id;
+        private final String ticketNumber;
+        private final String status;
+        private final LocalDateTime createdAt;
+        private final String officeName;
 
         public Ticket(int id, String ticketNumber, String status, LocalDateTime createdAt, String officeName) {
-            this.id = new SimpleObjectProperty<>(id);
-            this.ticketNumber = new SimpleStringProperty(ticketNumber);
-            this.status = new SimpleStringProperty(status);
+            this.id = id;
+            this.ticketNumber = ticketNumber;
+            this.status = status;
             this.createdAt = createdAt;
-            this.formattedCreatedAt = new SimpleStringProperty(formatDateTime(createdAt));
             this.officeName = officeName;
         }
 
-        private String formatDateTime(LocalDateTime dateTime) {
-            return dateTime.format(DateTimeFormatter.ofPattern("MMMM dd, yyyy hh:mm a"));
+        public int getId() {
+            return id;
+        }
+
+        public String getTicketNumber() {
+            return ticketNumber;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public LocalDateTime getCreatedAt() {
+            return createdAt;
+        }
+
+        public String getOfficeName() {
+            return officeName;
         }
     }
 }
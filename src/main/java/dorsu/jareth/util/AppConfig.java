@@ -0,0 +1,41 @@
+package dorsu.jareth.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import org.apache.logging.log4j.Logger;
+
+// Settings from config.properties on the classpath, with defaults for anything missing.
+// A -Dkey=value system property overrides the file, e.g. to point a benchmark at a stand-in database.
+public class AppConfig {
+
+    private static final Logger LOG = Loggers.server(AppConfig.class);
+
+    private static final Properties properties = load();
+
+    public static String get(String key, String defaultValue) {
+        return System.getProperty(key, properties.getProperty(key, defaultValue));
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        return value == null || value.isBlank() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        return value == null || value.isBlank() ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    private static Properties load() {
+        Properties properties = new Properties();
+        try (InputStream input = AppConfig.class.getClassLoader().getResourceAsStream("config.properties")) {
+            if (input != null) {
+                properties.load(input);
+            }
+        } catch (IOException e) {
+            LOG.error("Error loading configuration file: {}", e.getMessage());
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,336 @@
+package dorsu.jareth.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Bounded pool of MySQL connections. Borrowed connections are handed out as
+ * proxies whose {@code close()} returns the physical connection to the pool,
+ * so callers keep using try-with-resources exactly as before.
+ */
+public class ConnectionPool {
+
+    private static final Logger LOG = Loggers.db(ConnectionPool.class);
+
+    private static final long VALIDATE_AFTER_IDLE_MILLIS = 5_000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final int minIdle;
+    private final long maxWaitMillis;
+    private final long idleTimeoutMillis;
+
+    private final Semaphore permits;
+    private final Deque<IdleConnection> idle = new ArrayDeque<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder borrowNanos = new LongAdder();
+    private final AtomicLong maxBorrowNanos = new AtomicLong();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+
+    public ConnectionPool(String url, String user, String password, int maxSize, int minIdle, long maxWaitMillis, long idleTimeoutMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.minIdle = Math.min(minIdle, maxSize);
+        this.maxWaitMillis = maxWaitMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.permits = new Semaphore(maxSize, true);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "db-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1_000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdleConnections, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool has been closed.");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.increment();
+                throw new SQLTimeoutException("Timed out after " + maxWaitMillis + " ms waiting for a database connection.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection.", e);
+        }
+        try {
+            Connection physical = takeIdleConnection();
+            if (physical == null) {
+                physical = DriverManager.getConnection(url, user, password);
+                createdCount.increment();
+            }
+            active.incrementAndGet();
+            recordBorrow(System.nanoTime() - start);
+            return wrap(physical);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        List<IdleConnection> toClose;
+        synchronized (idle) {
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+        }
+        for (IdleConnection connection : toClose) {
+            closeQuietly(connection.physical);
+        }
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.sum();
+    }
+
+    public double getAverageBorrowMillis() {
+        long count = borrowCount.sum();
+        return count == 0 ? 0 : borrowNanos.sum() / 1_000_000.0 / count;
+    }
+
+    public double getMaxBorrowMillis() {
+        return maxBorrowNanos.get() / 1_000_000.0;
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+
+    public long getEvictedCount() {
+        return evictedCount.sum();
+    }
+
+    private Connection takeIdleConnection() {
+        while (true) {
+            IdleConnection candidate;
+            synchronized (idle) {
+                candidate = idle.pollFirst();
+            }
+            if (candidate == null) {
+                return null;
+            }
+            if (isUsable(candidate)) {
+                return candidate.physical;
+            }
+            evictedCount.increment();
+            closeQuietly(candidate.physical);
+        }
+    }
+
+    private boolean isUsable(IdleConnection candidate) {
+        try {
+            if (candidate.physical.isClosed()) {
+                return false;
+            }
+            // Recently returned connections are trusted; anything older gets a round-trip check
+            if (System.currentTimeMillis() - candidate.returnedAt < VALIDATE_AFTER_IDLE_MILLIS) {
+                return true;
+            }
+            return candidate.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // Puts back whatever session state the borrower changed, so the next borrower starts from the defaults
+    private void release(Connection physical, PooledConnectionHandler handler) {
+        active.decrementAndGet();
+        try {
+            if (closed || physical.isClosed()) {
+                closeQuietly(physical);
+                return;
+            }
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            handler.restoreSessionState();
+            synchronized (idle) {
+                // Most recently used first, so the tail ages out under the evictor
+                idle.addFirst(new IdleConnection(physical, System.currentTimeMillis()));
+            }
+        } catch (SQLException e) {
+            closeQuietly(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void evictIdleConnections() {
+        long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+        List<IdleConnection> expired = new ArrayList<>();
+        synchronized (idle) {
+            Iterator<IdleConnection> it = idle.descendingIterator();
+            while (it.hasNext() && idle.size() > minIdle) {
+                IdleConnection connection = it.next();
+                if (connection.returnedAt < cutoff) {
+                    it.remove();
+                    expired.add(connection);
+                }
+            }
+        }
+        for (IdleConnection connection : expired) {
+            evictedCount.increment();
+            closeQuietly(connection.physical);
+        }
+    }
+
+    private void recordBorrow(long nanos) {
+        borrowCount.increment();
+        borrowNanos.add(nanos);
+        maxBorrowNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private Connection wrap(Connection physical) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new PooledConnectionHandler(physical));
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOG.error("Error closing pooled connection: {}", e.getMessage());
+        }
+    }
+
+    private static class IdleConnection {
+
+        private final Connection physical;
+        private final long returnedAt;
+
+        IdleConnection(Connection physical, long returnedAt) {
+            this.physical = physical;
+            this.returnedAt = returnedAt;
+        }
+    }
+
+    /**
+     * Not synchronized: a monitor held across a JDBC call would pin a virtual
+     * thread's carrier for the whole round trip. Only the returned flag is
+     * shared between callers, and it is atomic. The session settings are
+     * saved by the borrower's own thread before its first change to them.
+     */
+    private class PooledConnectionHandler implements InvocationHandler {
+
+        private final Connection physical;
+        private final AtomicBoolean returned = new AtomicBoolean();
+        // Values from before the borrower's first change, null while unchanged
+        private Boolean originalReadOnly;
+        private Integer originalIsolation;
+        private String originalCatalog;
+
+        PooledConnectionHandler(Connection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (returned.compareAndSet(false, true)) {
+                        release(physical, this);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned.get() || physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + physical;
+                default:
+                    if (returned.get()) {
+                        throw new SQLException("Connection has already been returned to the pool.");
+                    }
+                    saveSessionState(method.getName());
+                    try {
+                        return method.invoke(physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+
+        private void saveSessionState(String methodName) throws SQLException {
+            if (methodName.equals("setReadOnly") && originalReadOnly == null) {
+                originalReadOnly = physical.isReadOnly();
+            } else if (methodName.equals("setTransactionIsolation") && originalIsolation == null) {
+                originalIsolation = physical.getTransactionIsolation();
+            } else if (methodName.equals("setCatalog") && originalCatalog == null) {
+                originalCatalog = physical.getCatalog();
+            }
+        }
+
+        void restoreSessionState() throws SQLException {
+            if (originalReadOnly != null) {
+                physical.setReadOnly(originalReadOnly);
+            }
+            if (originalIsolation != null) {
+                physical.setTransactionIsolation(originalIsolation);
+            }
+            if (originalCatalog != null) {
+                physical.setCatalog(originalCatalog);
+            }
+        }
+    }
+}
@@ -1,27 +1,61 @@
 package dorsu.jareth.util;
 
+import dorsu.jareth.metrics.Metrics;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Map;
 
 public class DatabaseConnection {
 
-    private static Connection connection;
+    private static ConnectionPool pool;
+    private static volatile boolean migrated;
 
+    // Connections come from a shared pool; closing one hands it back instead of disconnecting
     public static Connection getConnection() throws SQLException {
-        if (connection == null || connection.isClosed()) {
-            // Replace with your actual database credentials
-            String url = "jdbc:mysql://localhost:3306/queue_management";
-            String user = "root";
-            String password = ""; 
-            connection = DriverManager.getConnection(url, user, password);
+        return getPool().borrow();
+    }
+
+    /**
+     * Brings the schema up to date, once per process. Called at application
+     * and server startup, never from the FX thread: it can wait up to a
+     * minute for another instance that is migrating the same database.
+     */
+    public static synchronized void migrateSchema() throws SQLException {
+        if (!migrated) {
+            try (Connection connection = getPool().borrow()) {
+                SchemaMigrator.migrate(connection);
+            }
+            migrated = true;
         }
-        return connection;
     }
 
-    public static void closeConnection() throws SQLException {
-        if (connection != null && !connection.isClosed()) {
-            connection.close();
+    public static synchronized ConnectionPool getPool() {
+        if (pool == null) {
+            pool = new ConnectionPool(
+                    AppConfig.get("db.url", "jdbc:mysql://localhost:3306/queue_management"),
+                    AppConfig.get("db.user", "root"),
+                    AppConfig.get("db.password", ""),
+                    AppConfig.getInt("db.pool.maxSize", 10),
+                    AppConfig.getInt("db.pool.minIdle", 2),
+                    AppConfig.getLong("db.pool.maxWaitMillis", 5000),
+                    AppConfig.getLong("db.pool.idleTimeoutMillis", 300000));
+            registerPoolMetrics(pool);
+        }
+        return pool;
+    }
+
+    private static void registerPoolMetrics(ConnectionPool pool) {
+        Metrics.gauges("queue_db_pool_connections", "Pooled MySQL connections by state.", "state",
+                () -> Map.of("active", pool.getActiveCount(), "idle", pool.getIdleCount(), "max", pool.getMaxSize()));
+        Metrics.gauge("queue_db_pool_borrow_wait_avg_seconds", "Average wait to borrow a pooled connection.", () -> pool.getAverageBorrowMillis() / 1000);
+        Metrics.gauge("queue_db_pool_borrow_wait_max_seconds", "Longest wait to borrow a pooled connection.", () -> pool.getMaxBorrowMillis() / 1000);
+        Metrics.counter("queue_db_pool_timeouts_total", "Borrows that gave up waiting for a connection.", pool::getTimeoutCount);
+    }
+
+    public static synchronized void closeConnection() throws SQLException {
+        if (pool != null) {
+            pool.close();
+            pool = null;
         }
     }
 }
@@ -0,0 +1,36 @@
+package dorsu.jareth.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Loggers grouped by subsystem, named e.g. "server.OfficeDispatcher", so
+ * log4j2.xml can set one level for the whole server, client, database or UI
+ * side. All of them are asynchronous; pass values as {} parameters rather
+ * than concatenating, so a disabled level costs nothing.
+ */
+public final class Loggers {
+
+    private Loggers() {
+    }
+
+    // Request handling, the queue engine and its files
+    public static Logger server(Class<?> type) {
+        return LogManager.getLogger("server." + type.getSimpleName());
+    }
+
+    // The WebSocket connection of counter, kiosk and display clients
+    public static Logger client(Class<?> type) {
+        return LogManager.getLogger("client." + type.getSimpleName());
+    }
+
+    // MySQL access: the pool, migrations, write-behind and cached lookups
+    public static Logger db(Class<?> type) {
+        return LogManager.getLogger("db." + type.getSimpleName());
+    }
+
+    // JavaFX windows
+    public static Logger ui(Class<?> type) {
+        return LogManager.getLogger("ui." + type.getSimpleName());
+    }
+}
@@ -0,0 +1,208 @@
+package dorsu.jareth.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Brings the database up to the schema this build expects. queue_management.sql
+ * is version 0; every later change is a numbered migration below and is
+ * recorded in schema_version once applied. Migrations are append-only: never
+ * edit or renumber one that has shipped, add a new one instead.
+ *
+ * MySQL commits each DDL statement on its own, so a migration that fails
+ * halfway leaves its first statements applied while its version stays
+ * unrecorded. Every statement is therefore written to be safe to run again:
+ * tables use IF NOT EXISTS, seed rows INSERT IGNORE, and columns and indexes
+ * are only added, renamed or dropped after checking information_schema.
+ *
+ * A named lock keeps two applications starting at the same time from
+ * applying the same migration twice.
+ */
+public class SchemaMigrator {
+
+    private static final Logger LOG = Loggers.db(SchemaMigrator.class);
+
+    private static final String LOCK_NAME = "queue_management.schema_migration";
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "Per-office daily ticket number sequences",
+                    sql("CREATE TABLE IF NOT EXISTS ticket_sequences ("
+                    + "office_id INT NOT NULL, "
+                    + "seq_date DATE NOT NULL, "
+                    + "next_value INT NOT NULL, "
+                    + "PRIMARY KEY (office_id, seq_date))")),
+            new Migration(2, "Covering index for per-office status lookups",
+                    createIndex("tickets", "idx_tickets_office_status", "office_id, status, id, ticket_number, created_at")),
+            // MySQL has no partial indexes. pending_office_id is NULL for every served ticket,
+            // so its index only has real entries for the handful of tickets still waiting.
+            new Migration(3, "Active tickets path",
+                    addColumn("tickets", "pending_office_id", "INT GENERATED ALWAYS AS (CASE WHEN status = 'pending' THEN office_id END) STORED"),
+                    createIndex("tickets", "idx_tickets_pending", "pending_office_id, id, ticket_number, created_at")),
+            new Migration(4, "Indexes for ticket history search and sorting",
+                    createIndex("tickets", "idx_tickets_created_at", "created_at"),
+                    createIndex("tickets", "idx_tickets_office_created_at", "office_id, created_at"),
+                    createIndex("tickets", "idx_tickets_ticket_number", "ticket_number")),
+            // Backfilled once from the existing history; kept current by DailyStatsRollup from then on
+            new Migration(5, "Daily ticket statistics rollup",
+                    sql("CREATE TABLE IF NOT EXISTS ticket_daily_stats ("
+                    + "stat_date DATE NOT NULL, "
+                    + "office_id INT NOT NULL, "
+                    + "status VARCHAR(16) NOT NULL, "
+                    + "ticket_count INT NOT NULL DEFAULT 0, "
+                    + "wait_seconds_sum BIGINT NOT NULL DEFAULT 0, "
+                    + "service_seconds_sum BIGINT NOT NULL DEFAULT 0, "
+                    + "service_count INT NOT NULL DEFAULT 0, "
+                    + "PRIMARY KEY (stat_date, office_id, status))"),
+                    sql("INSERT IGNORE INTO ticket_daily_stats (stat_date, office_id, status, ticket_count) "
+                    + "SELECT DATE(created_at), office_id, status, COUNT(*) FROM tickets GROUP BY DATE(created_at), office_id, status")),
+            // Last write-behind journal entry committed, advanced in the same transaction as each batch
+            new Migration(6, "Write-behind journal checkpoint",
+                    sql("CREATE TABLE IF NOT EXISTS write_behind_checkpoint ("
+                    + "id TINYINT NOT NULL PRIMARY KEY, "
+                    + "journal_seq BIGINT NOT NULL)"),
+                    sql("INSERT IGNORE INTO write_behind_checkpoint (id, journal_seq) VALUES (1, 0)")),
+            // served_at is when the office called its next ticket, which is when this one's service ended
+            new Migration(7, "Called and served timestamps",
+                    addColumn("tickets", "called_at", "DATETIME NULL"),
+                    addColumn("tickets", "served_at", "DATETIME NULL")),
+            // With several counters at an office the next call is often another counter's, so neither served_at
+            // nor the service sums were service times. The sums are kept as what they measured: time between calls.
+            new Migration(8, "Call intervals instead of per-ticket service times",
+                    renameColumn("ticket_daily_stats", "service_seconds_sum", "call_interval_seconds_sum", "BIGINT NOT NULL DEFAULT 0"),
+                    renameColumn("ticket_daily_stats", "service_count", "call_interval_count", "INT NOT NULL DEFAULT 0"),
+                    dropColumn("tickets", "served_at")),
+            // Migration 5 backfilled counts only, so older days had tickets with no wait in the sum. Waits are
+            // recomputed from called_at where it was recorded and averaged over wait_count, not ticket_count.
+            new Migration(9, "Wait counts and backfilled waits for the daily statistics",
+                    addColumn("ticket_daily_stats", "wait_count", "INT NOT NULL DEFAULT 0"),
+                    sql("UPDATE ticket_daily_stats s JOIN ("
+                    + "SELECT DATE(created_at) AS stat_date, office_id, status, COUNT(*) AS waits, "
+                    + "SUM(TIMESTAMPDIFF(SECOND, created_at, called_at)) AS wait_seconds "
+                    + "FROM tickets WHERE called_at IS NOT NULL GROUP BY DATE(created_at), office_id, status) t "
+                    + "ON s.stat_date = t.stat_date AND s.office_id = t.office_id AND s.status = t.status "
+                    + "SET s.wait_seconds_sum = t.wait_seconds, s.wait_count = t.waits"))
+    );
+
+    private SchemaMigrator() {
+    }
+
+    public static void migrate(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT GET_LOCK('" + LOCK_NAME + "', 60)")) {
+                if (!rs.next() || rs.getInt(1) != 1) {
+                    throw new SQLException("Timed out waiting for another application to finish migrating the database.");
+                }
+            }
+            try {
+                stmt.executeUpdate("CREATE TABLE IF NOT EXISTS schema_version ("
+                        + "version INT NOT NULL PRIMARY KEY, "
+                        + "description VARCHAR(255) NOT NULL, "
+                        + "applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+                int current;
+                try (ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+                    current = rs.next() ? rs.getInt(1) : 0;
+                }
+                for (Migration migration : MIGRATIONS) {
+                    if (migration.version > current) {
+                        apply(connection, migration);
+                    }
+                }
+            } finally {
+                stmt.execute("DO RELEASE_LOCK('" + LOCK_NAME + "')");
+            }
+        }
+    }
+
+    public static int getLatestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    // Recorded only after all of its steps succeed; a failed one is retried from its first step next time
+    private static void apply(Connection connection, Migration migration) throws SQLException {
+        LOG.info("Applying database migration {}: {}", migration.version, migration.description);
+        try (Statement stmt = connection.createStatement()) {
+            for (Step step : migration.steps) {
+                step.apply(stmt);
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Database migration " + migration.version + " failed: " + e.getMessage(), e);
+        }
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO schema_version (version, description) VALUES (?, ?)")) {
+            insert.setInt(1, migration.version);
+            insert.setString(2, migration.description);
+            insert.executeUpdate();
+        }
+    }
+
+    // Statements that are already safe to repeat, e.g. CREATE TABLE IF NOT EXISTS
+    private static Step sql(String statement) {
+        return stmt -> stmt.executeUpdate(statement);
+    }
+
+    private static Step addColumn(String table, String column, String definition) {
+        return stmt -> {
+            if (!columnExists(stmt, table, column)) {
+                stmt.executeUpdate("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+            }
+        };
+    }
+
+    private static Step renameColumn(String table, String column, String newName, String definition) {
+        return stmt -> {
+            if (columnExists(stmt, table, column) && !columnExists(stmt, table, newName)) {
+                stmt.executeUpdate("ALTER TABLE " + table + " CHANGE COLUMN " + column + " " + newName + " " + definition);
+            }
+        };
+    }
+
+    private static Step dropColumn(String table, String column) {
+        return stmt -> {
+            if (columnExists(stmt, table, column)) {
+                stmt.executeUpdate("ALTER TABLE " + table + " DROP COLUMN " + column);
+            }
+        };
+    }
+
+    private static Step createIndex(String table, String index, String columns) {
+        return stmt -> {
+            if (!exists(stmt, "SELECT 1 FROM information_schema.statistics WHERE table_schema = DATABASE() "
+                    + "AND table_name = '" + table + "' AND index_name = '" + index + "'")) {
+                stmt.executeUpdate("CREATE INDEX " + index + " ON " + table + " (" + columns + ")");
+            }
+        };
+    }
+
+    private static boolean columnExists(Statement stmt, String table, String column) throws SQLException {
+        return exists(stmt, "SELECT 1 FROM information_schema.columns WHERE table_schema = DATABASE() "
+                + "AND table_name = '" + table + "' AND column_name = '" + column + "'");
+    }
+
+    private static boolean exists(Statement stmt, String query) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(query)) {
+            return rs.next();
+        }
+    }
+
+    private interface Step {
+
+        void apply(Statement stmt) throws SQLException;
+    }
+
+    private static class Migration {
+
+        final int version;
+        final String description;
+        final Step[] steps;
+
+        Migration(int version, String description, Step... steps) {
+            this.version = version;
+            this.description = description;
+            this.steps = steps;
+        }
+    }
+}
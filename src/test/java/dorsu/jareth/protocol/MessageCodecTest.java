@@ -0,0 +1,113 @@
+package dorsu.jareth.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class MessageCodecTest {
+
+    private static QueueMessage fullMessage() {
+        return QueueMessage.command(MessageType.SNAPSHOT, 7)
+                .withSequence(42)
+                .withTicketNumber("Ticket-12")
+                .withOfficeName("Registrar \"Main\"\n")
+                .withText("tab\there, é")
+                .withTickets(List.of("Ticket-13", "Ticket-14"))
+                .withTimestamp(1_700_000_000_000L)
+                .withRequestId("rid-1")
+                .withEpoch(99)
+                .withServiceMillis(90_000);
+    }
+
+    private static void assertSameMessage(QueueMessage expected, QueueMessage actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getOfficeId(), actual.getOfficeId());
+        assertEquals(expected.getSequence(), actual.getSequence());
+        assertEquals(expected.getTicketNumber(), actual.getTicketNumber());
+        assertEquals(expected.getOfficeName(), actual.getOfficeName());
+        assertEquals(expected.getText(), actual.getText());
+        assertEquals(expected.getTickets(), actual.getTickets());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getRequestId(), actual.getRequestId());
+        assertEquals(expected.getEpoch(), actual.getEpoch());
+        assertEquals(expected.getServiceMillis(), actual.getServiceMillis());
+    }
+
+    @Test
+    void jsonRoundTripKeepsEveryField() {
+        QueueMessage message = fullMessage();
+        assertSameMessage(message, MessageCodec.decodeJson(MessageCodec.encodeJson(message)));
+    }
+
+    @Test
+    void binaryRoundTripKeepsEveryField() {
+        QueueMessage message = fullMessage();
+        assertSameMessage(message, MessageCodec.decodeBinary(MessageCodec.encodeBinary(message)));
+    }
+
+    @Test
+    void unsetFieldsStayUnset() {
+        QueueMessage decoded = MessageCodec.decodeJson(MessageCodec.encodeJson(new QueueMessage(MessageType.NEXT_TICKET)));
+        assertEquals(0, decoded.getOfficeId());
+        assertNull(decoded.getTicketNumber());
+        assertTrue(decoded.getTickets().isEmpty());
+    }
+
+    @Test
+    void unknownJsonFieldsAreSkipped() {
+        QueueMessage decoded = MessageCodec.decodeJson(
+                "{\"v\":1,\"future\":{\"a\":[1,2,\"x\"]},\"type\":\"NEW_TICKET\",\"office\":3,\"extra\":true}");
+        assertEquals(MessageType.NEW_TICKET, decoded.getType());
+        assertEquals(3, decoded.getOfficeId());
+    }
+
+    @Test
+    void unknownBinaryFieldsAreSkipped() {
+        ByteBuffer frame = ByteBuffer.allocate(3 + 5 + 2 + 5 + 4)
+                .put((byte) 'Q').put((byte) MessageCodec.PROTOCOL_VERSION).put((byte) MessageType.NEW_TICKET.getCode())
+                .put((byte) 200).putInt(2).putShort((short) 1)
+                .put((byte) 1).putInt(4).putInt(5)
+                .flip();
+        QueueMessage decoded = MessageCodec.decodeBinary(frame);
+        assertEquals(MessageType.NEW_TICKET, decoded.getType());
+        assertEquals(5, decoded.getOfficeId());
+    }
+
+    @Test
+    void unknownJsonVersionIsRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> MessageCodec.decodeJson("{\"v\":" + (MessageCodec.PROTOCOL_VERSION + 1) + ",\"type\":\"NEW_TICKET\"}"));
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.decodeJson("{\"v\":0,\"type\":\"NEW_TICKET\"}"));
+    }
+
+    @Test
+    void unknownBinaryVersionIsRejected() {
+        ByteBuffer frame = MessageCodec.encodeBinary(new QueueMessage(MessageType.NEW_TICKET));
+        frame.put(1, (byte) (MessageCodec.PROTOCOL_VERSION + 1));
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.decodeBinary(frame));
+    }
+
+    @Test
+    void overflowingNumbersAreRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> MessageCodec.decodeJson("{\"v\":1,\"type\":\"NEW_TICKET\",\"seq\":92233720368547758070}"));
+        assertThrows(IllegalArgumentException.class,
+                () -> MessageCodec.decodeJson("{\"v\":1,\"type\":\"NEW_TICKET\",\"office\":2147483648}"));
+        assertEquals(Long.MAX_VALUE,
+                MessageCodec.decodeJson("{\"v\":1,\"type\":\"NEW_TICKET\",\"seq\":" + Long.MAX_VALUE + "}").getSequence());
+    }
+
+    @Test
+    void malformedInputIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.decodeJson("{\"v\":1,\"type\":\"NEW_TICKET\""));
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.decodeJson("{\"v\":1}"));
+        ByteBuffer truncated = MessageCodec.encodeBinary(fullMessage());
+        truncated.limit(truncated.limit() - 3);
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.decodeBinary(truncated));
+    }
+}
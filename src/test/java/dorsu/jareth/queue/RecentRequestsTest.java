@@ -0,0 +1,69 @@
+package dorsu.jareth.queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import dorsu.jareth.queue.RecentRequests.Applied;
+import java.time.LocalDateTime;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class RecentRequestsTest {
+
+    private static QueuedTicket ticket(int id) {
+        return new QueuedTicket(id, "Ticket-" + id, 1, LocalDateTime.now());
+    }
+
+    @Test
+    void answersWithTheTicketAKeyFirstChanged() {
+        RecentRequests requests = new RecentRequests(1_000, 10);
+        QueuedTicket first = ticket(1);
+        requests.add(new Applied("a", first, 100), 100);
+        requests.add(new Applied("a", ticket(2), 200), 200);
+        assertSame(first, requests.get("a", 300));
+        assertNull(requests.get("b", 300));
+        assertNull(requests.get(null, 300));
+    }
+
+    @Test
+    void forgetsKeysOnceTheWindowHasPassed() {
+        RecentRequests requests = new RecentRequests(1_000, 10);
+        requests.add(new Applied("a", ticket(1), 100), 100);
+        requests.add(new Applied("b", ticket(2), 600), 600);
+        assertEquals(1, requests.get("a", 1_100).getId());
+        assertNull(requests.get("a", 1_101));
+        assertEquals(2, requests.get("b", 1_101).getId());
+    }
+
+    @Test
+    void ignoresEntriesThatExpiredBeforeTheyWereRestored() {
+        RecentRequests requests = new RecentRequests(1_000, 10);
+        requests.add(new Applied("old", ticket(1), 100), 5_000);
+        assertNull(requests.get("old", 5_000));
+    }
+
+    @Test
+    void evictsTheOldestKeyWhenFull() {
+        RecentRequests requests = new RecentRequests(10_000, 2);
+        requests.add(new Applied("a", ticket(1), 100), 100);
+        requests.add(new Applied("b", ticket(2), 200), 200);
+        requests.add(new Applied("c", ticket(3), 300), 300);
+        assertNull(requests.get("a", 400));
+        assertEquals(2, requests.get("b", 400).getId());
+        assertEquals(3, requests.get("c", 400).getId());
+    }
+
+    @Test
+    void listsLiveEntriesOldestFirstForTheSnapshot() {
+        RecentRequests requests = new RecentRequests(1_000, 10);
+        requests.add(new Applied("a", ticket(1), 100), 100);
+        requests.add(new Applied("b", ticket(2), 600), 600);
+        requests.add(new Applied("c", ticket(3), 900), 900);
+        List<Applied> live = requests.entries(1_200);
+        assertEquals(2, live.size());
+        assertEquals("b", live.get(0).getRequestId());
+        assertEquals("c", live.get(1).getRequestId());
+        assertEquals(900, live.get(1).getAppliedAt());
+    }
+}
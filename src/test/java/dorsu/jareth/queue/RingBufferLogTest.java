@@ -0,0 +1,59 @@
+package dorsu.jareth.queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import javafx.collections.ListChangeListener;
+import org.junit.jupiter.api.Test;
+
+class RingBufferLogTest {
+
+    @Test
+    void keepsTheNewestLinesOnceFull() {
+        RingBufferLog log = new RingBufferLog(3);
+        log.appendAll(List.of("a", "b"));
+        log.appendAll(List.of("c", "d"));
+        assertEquals(List.of("b", "c", "d"), new ArrayList<>(log));
+        log.appendAll(List.of("e"));
+        assertEquals(List.of("c", "d", "e"), new ArrayList<>(log));
+    }
+
+    @Test
+    void keepsOnlyTheTailOfAnOversizedBatch() {
+        RingBufferLog log = new RingBufferLog(3);
+        log.appendAll(List.of("a"));
+        log.appendAll(List.of("b", "c", "d", "e", "f"));
+        assertEquals(List.of("d", "e", "f"), new ArrayList<>(log));
+    }
+
+    @Test
+    void reportsEachBatchAsOneChange() {
+        RingBufferLog log = new RingBufferLog(3);
+        log.appendAll(List.of("a", "b"));
+        List<String> removed = new ArrayList<>();
+        List<String> added = new ArrayList<>();
+        int[] changes = new int[1];
+        log.addListener((ListChangeListener<String>) change -> {
+            changes[0]++;
+            while (change.next()) {
+                removed.addAll(change.getRemoved());
+                added.addAll(change.getAddedSubList());
+            }
+        });
+        log.appendAll(List.of("c", "d"));
+        assertEquals(1, changes[0]);
+        assertEquals(List.of("a"), removed);
+        assertEquals(List.of("c", "d"), added);
+    }
+
+    @Test
+    void ignoresAnEmptyBatch() {
+        RingBufferLog log = new RingBufferLog(3);
+        int[] changes = new int[1];
+        log.addListener((ListChangeListener<String>) change -> changes[0]++);
+        log.appendAll(List.of());
+        assertEquals(0, changes[0]);
+        assertEquals(0, log.size());
+    }
+}
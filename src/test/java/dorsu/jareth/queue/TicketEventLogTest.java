@@ -0,0 +1,112 @@
+package dorsu.jareth.queue;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TicketEventLogTest {
+
+    @TempDir
+    Path directory;
+
+    private static byte[] payload(long sequence) {
+        return ("event-" + sequence).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> text(List<byte[]> records) {
+        List<String> values = new ArrayList<>();
+        for (byte[] record : records) {
+            values.add(new String(record, StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.log")) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private TicketEventLog write(int segmentBytes, int count) throws IOException {
+        TicketEventLog log = new TicketEventLog(directory, segmentBytes, false);
+        log.open();
+        for (long sequence = 1; sequence <= count; sequence++) {
+            log.append(sequence, payload(sequence));
+        }
+        return log;
+    }
+
+    @Test
+    void replaysRecordsInOrderAcrossSegments() throws IOException {
+        write(40, 10).close();
+        List<byte[]> records = new TicketEventLog(directory, 40, false).open();
+        assertEquals(10, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertArrayEquals(payload(i + 1), records.get(i));
+        }
+        assertEquals(5, segments().size());
+    }
+
+    @Test
+    void dropsATornRecordAndAppendsAfterTheLastGoodOne() throws IOException {
+        write(1024, 3).close();
+        Path segment = segments().get(0);
+        long goodLength = Files.size(segment);
+        // Header of a fourth record whose payload never made it to disk
+        Files.write(segment, new byte[]{0, 0, 0, 20, 1, 2, 3, 4, 'e'}, StandardOpenOption.APPEND);
+
+        TicketEventLog log = new TicketEventLog(directory, 1024, false);
+        assertEquals(3, log.open().size());
+        assertEquals(goodLength, Files.size(segment));
+        log.append(4, payload(4));
+        log.close();
+        assertEquals(List.of("event-1", "event-2", "event-3", "event-4"), text(new TicketEventLog(directory, 1024, false).open()));
+    }
+
+    @Test
+    void stopsAtARecordWhoseChecksumDoesNotMatch() throws IOException {
+        write(1024, 3).close();
+        Path segment = segments().get(0);
+        byte[] bytes = Files.readAllBytes(segment);
+        // Flip the last payload byte of the third record
+        bytes[bytes.length - 1] ^= 0x01;
+        Files.write(segment, bytes);
+        assertEquals(List.of("event-1", "event-2"), text(new TicketEventLog(directory, 1024, false).open()));
+    }
+
+    @Test
+    void readsZeroFilledSegmentsFromEarlierVersions() throws IOException {
+        write(1024, 2).close();
+        Path segment = segments().get(0);
+        Files.write(segment, new byte[4096], StandardOpenOption.APPEND);
+        assertEquals(List.of("event-1", "event-2"), text(new TicketEventLog(directory, 1024, false).open()));
+    }
+
+    @Test
+    void deletesOnlySegmentsThatAreFullyCovered() throws IOException {
+        // Two 15-byte records per 40-byte segment: segments start at 1, 3, 5, 7 and 9
+        TicketEventLog log = write(40, 10);
+        log.deleteUpTo(4);
+        assertEquals(3, segments().size());
+        log.deleteUpTo(5);
+        assertEquals(3, segments().size());
+        log.deleteUpTo(100);
+        // The segment being appended to is always kept
+        assertEquals(1, segments().size());
+        log.close();
+        assertEquals(List.of("event-9", "event-10"), text(new TicketEventLog(directory, 40, false).open()));
+    }
+}
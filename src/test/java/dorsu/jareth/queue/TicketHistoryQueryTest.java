@@ -0,0 +1,60 @@
+package dorsu.jareth.queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import dorsu.jareth.queue.TicketHistoryQuery.SortColumn;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class TicketHistoryQueryTest {
+
+    private static String where(TicketHistoryQuery query, List<Object> parameters, Object afterSortValue, Integer afterId) {
+        StringBuilder sql = new StringBuilder();
+        query.appendWhere(sql, parameters, afterSortValue, afterId);
+        return sql.toString();
+    }
+
+    @Test
+    void unsetFiltersMatchEverything() {
+        List<Object> parameters = new ArrayList<>();
+        assertEquals("", where(new TicketHistoryQuery().withStatus(" ").withTicketNumber(""), parameters, null, null));
+        assertEquals(List.of(), parameters);
+    }
+
+    @Test
+    void filtersCompareTheBareColumns() {
+        TicketHistoryQuery query = new TicketHistoryQuery()
+                .withOfficeId(2)
+                .withStatus("served")
+                .withDateRange(LocalDate.of(2026, 3, 1), LocalDate.of(2026, 3, 31))
+                .withTicketNumber(" Ticket-1_%\\ ");
+        List<Object> parameters = new ArrayList<>();
+        assertEquals(" WHERE office_id = ? AND status = ? AND created_at >= ? AND created_at < ? AND ticket_number LIKE ?",
+                where(query, parameters, null, null));
+        assertEquals(List.of(2, "served",
+                Timestamp.valueOf(LocalDate.of(2026, 3, 1).atStartOfDay()),
+                Timestamp.valueOf(LocalDate.of(2026, 4, 1).atStartOfDay()),
+                "Ticket-1\\_\\%\\\\%"), parameters);
+    }
+
+    @Test
+    void keysetPagingByIdUsesTheIdAlone() {
+        List<Object> parameters = new ArrayList<>();
+        TicketHistoryQuery descending = new TicketHistoryQuery().withSort(SortColumn.ID, false);
+        assertEquals(" WHERE id < ?", where(descending, parameters, 40, 40));
+        assertEquals(List.of(40), parameters);
+        assertEquals(" ORDER BY id DESC", descending.orderBy());
+    }
+
+    @Test
+    void keysetPagingByAnotherColumnBreaksTiesById() {
+        List<Object> parameters = new ArrayList<>();
+        TicketHistoryQuery query = new TicketHistoryQuery().withOfficeId(1).withSort(SortColumn.STATUS, true);
+        assertEquals(" WHERE office_id = ? AND (status > ? OR (status = ? AND id > ?))", where(query, parameters, "pending", 17));
+        assertEquals(List.of(1, "pending", "pending", 17), parameters);
+        assertEquals(" ORDER BY status ASC, id ASC", query.orderBy());
+    }
+}
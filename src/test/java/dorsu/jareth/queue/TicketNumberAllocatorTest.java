@@ -0,0 +1,73 @@
+package dorsu.jareth.queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dorsu.jareth.queue.TicketNumberAllocator.NumberRange;
+import java.time.LocalDate;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+// Only the in-memory side: restored ranges are handed out without reaching the database
+class TicketNumberAllocatorTest {
+
+    private static final LocalDate TODAY = LocalDate.now();
+
+    @Test
+    void handsOutRestoredNumbersInOrderAcrossBothBlocks() {
+        TicketNumberAllocator allocator = new TicketNumberAllocator();
+        allocator.restore(1, List.of(new NumberRange(TODAY, 5, 7), new NumberRange(TODAY, 51, 53)), 0);
+        assertEquals(5, allocator.next(1));
+        assertEquals(6, allocator.next(1));
+        assertEquals(51, allocator.next(1));
+        assertEquals(52, allocator.next(1));
+    }
+
+    @Test
+    void returnsZeroInsteadOfReservingWhenNothingIsLeft() {
+        TicketNumberAllocator allocator = new TicketNumberAllocator();
+        allocator.restore(1, List.of(new NumberRange(TODAY, 5, 6)), 0);
+        assertEquals(5, allocator.next(1));
+        assertEquals(0, allocator.next(1));
+        assertEquals(0, allocator.next(1));
+    }
+
+    @Test
+    void skipsNumbersTheEventLogShowsAsIssued() {
+        TicketNumberAllocator allocator = new TicketNumberAllocator();
+        allocator.restore(1, List.of(new NumberRange(TODAY, 5, 10), new NumberRange(TODAY, 51, 60)), 7);
+        assertEquals(8, allocator.next(1));
+
+        TicketNumberAllocator pastFirstBlock = new TicketNumberAllocator();
+        pastFirstBlock.restore(1, List.of(new NumberRange(TODAY, 5, 10), new NumberRange(TODAY, 51, 60)), 52);
+        assertEquals(53, pastFirstBlock.next(1));
+    }
+
+    @Test
+    void dropsRangesFromEarlierDays() {
+        TicketNumberAllocator allocator = new TicketNumberAllocator();
+        allocator.restore(1, List.of(new NumberRange(TODAY.minusDays(1), 5, 10)), 0);
+        assertEquals(0, allocator.next(1));
+        assertTrue(allocator.getUnusedNumbers(1).isEmpty());
+    }
+
+    @Test
+    void reportsUnusedNumbersForTheSnapshot() {
+        TicketNumberAllocator allocator = new TicketNumberAllocator();
+        allocator.restore(2, List.of(new NumberRange(TODAY, 5, 10), new NumberRange(TODAY, 51, 60)), 0);
+        allocator.next(2);
+        List<NumberRange> unused = allocator.getUnusedNumbers(2);
+        assertEquals(2, unused.size());
+        assertEquals(6, unused.get(0).getNext());
+        assertEquals(10, unused.get(0).getEnd());
+        assertEquals(51, unused.get(1).getNext());
+        assertEquals(60, unused.get(1).getEnd());
+    }
+
+    @Test
+    void parsesTicketNumbers() {
+        assertEquals(12, TicketNumberAllocator.numberOf("Ticket-12"));
+        assertEquals(0, TicketNumberAllocator.numberOf("Walk-in"));
+        assertEquals(0, TicketNumberAllocator.numberOf("Ticket-x"));
+    }
+}